@@ -0,0 +1,34 @@
+package com.widgera.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    /**
+     * Executor for prompt work that outlives the request thread (SSE streams and similar).
+     * Virtual threads: the work is almost entirely waiting on Gemini, S3 and the database.
+     */
+    @Bean(destroyMethod = "close")
+    public ExecutorService promptExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Async MVC handlers also run on virtual threads. The timeout stays the container default;
+     * long-running responses (SSE streams, NDJSON batches) set their own on the emitter.
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("mvc-async-");
+        executor.setVirtualThreads(true);
+        configurer.setTaskExecutor(executor);
+    }
+}
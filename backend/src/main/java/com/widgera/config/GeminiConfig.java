@@ -2,8 +2,13 @@ package com.widgera.config;
 
 import lombok.Getter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
 @Getter
 @Configuration
 public class GeminiConfig {
@@ -14,4 +19,83 @@ public class GeminiConfig {
     @Value("${gemini.model}")
     private String model;
 
+    @Value("${gemini.base-url:https://generativelanguage.googleapis.com/v1beta}")
+    private String baseUrl;
+
+    @Value("${gemini.http.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${gemini.http.read-timeout-ms:60000}")
+    private long readTimeoutMs;
+
+    @Value("${gemini.http.total-timeout-ms:90000}")
+    private long totalTimeoutMs;
+
+    @Value("${gemini.cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    @Value("${gemini.cache.ttl-seconds:86400}")
+    private long cacheTtlSeconds;
+
+    @Value("${gemini.cache.max-entries:10000}")
+    private long cacheMaxEntries;
+
+    @Value("${gemini.schema.cache-size:1000}")
+    private int schemaCacheSize;
+
+    @Value("${gemini.schema.max-output-tokens:8192}")
+    private int schemaMaxOutputTokens;
+
+    @Value("${gemini.schema.thinking-budget:0}")
+    private int schemaThinkingBudget;
+
+    @Value("${gemini.files.enabled:true}")
+    private boolean filesEnabled;
+
+    @Value("${gemini.files.upload-url:https://generativelanguage.googleapis.com/upload/v1beta/files}")
+    private String filesUploadUrl;
+
+    @Value("${gemini.files.refresh-margin-seconds:3600}")
+    private long filesRefreshMarginSeconds;
+
+    @Value("${gemini.files.local-ttl-seconds:172800}")
+    private long filesLocalTtlSeconds;
+
+    @Value("${gemini.limiter.initial-limit:20}")
+    private int limiterInitialLimit;
+
+    @Value("${gemini.limiter.min-limit:2}")
+    private int limiterMinLimit;
+
+    @Value("${gemini.limiter.max-limit:200}")
+    private int limiterMaxLimit;
+
+    @Value("${gemini.limiter.backoff-ratio:0.9}")
+    private double limiterBackoffRatio;
+
+    @Value("${gemini.limiter.latency-tolerance:2.0}")
+    private double limiterLatencyTolerance;
+
+    @Value("${gemini.rate-limit.enabled:true}")
+    private boolean rateLimitEnabled;
+
+    @Value("${gemini.rate-limit.capacity:20}")
+    private int rateLimitCapacity;
+
+    @Value("${gemini.rate-limit.refill-per-minute:30}")
+    private double rateLimitRefillPerMinute;
+
+    /**
+     * Shared HTTP/2 client for all Gemini calls. Connections are pooled and kept alive by the
+     * client; async completions run on virtual threads so slow LLM calls don't pin OS threads.
+     */
+    @Bean
+    public HttpClient geminiHttpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
 }
@@ -0,0 +1,62 @@
+package com.widgera.config;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Configuration
+public class GeminiResilienceConfig {
+
+    @Value("${gemini.resilience.circuit-breaker.enabled:true}")
+    private boolean circuitBreakerEnabled;
+
+    @Value("${gemini.resilience.circuit-breaker.window-size:50}")
+    private int circuitBreakerWindowSize;
+
+    @Value("${gemini.resilience.circuit-breaker.minimum-calls:20}")
+    private int circuitBreakerMinimumCalls;
+
+    @Value("${gemini.resilience.circuit-breaker.failure-rate-threshold:0.5}")
+    private double circuitBreakerFailureRateThreshold;
+
+    @Value("${gemini.resilience.circuit-breaker.slow-call-rate-threshold:0.8}")
+    private double circuitBreakerSlowCallRateThreshold;
+
+    @Value("${gemini.resilience.circuit-breaker.slow-call-duration-ms:30000}")
+    private long circuitBreakerSlowCallDurationMs;
+
+    @Value("${gemini.resilience.circuit-breaker.open-duration-ms:30000}")
+    private long circuitBreakerOpenDurationMs;
+
+    @Value("${gemini.resilience.circuit-breaker.half-open-calls:5}")
+    private int circuitBreakerHalfOpenCalls;
+
+    @Value("${gemini.resilience.retry.max-attempts:3}")
+    private int retryMaxAttempts;
+
+    @Value("${gemini.resilience.retry.base-backoff-ms:200}")
+    private long retryBaseBackoffMs;
+
+    @Value("${gemini.resilience.retry.max-backoff-ms:2000}")
+    private long retryMaxBackoffMs;
+
+    @Value("${gemini.resilience.retry.budget-ratio:0.2}")
+    private double retryBudgetRatio;
+
+    @Value("${gemini.resilience.retry.budget-min-per-second:1}")
+    private int retryBudgetMinPerSecond;
+
+    @Value("${gemini.resilience.hedging.enabled:false}")
+    private boolean hedgingEnabled;
+
+    @Value("${gemini.resilience.hedging.percentile:0.95}")
+    private double hedgingPercentile;
+
+    @Value("${gemini.resilience.hedging.min-samples:20}")
+    private int hedgingMinSamples;
+
+    @Value("${gemini.resilience.hedging.min-delay-ms:1000}")
+    private long hedgingMinDelayMs;
+
+}
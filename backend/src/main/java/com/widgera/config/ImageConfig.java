@@ -0,0 +1,56 @@
+package com.widgera.config;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Configuration
+public class ImageConfig {
+
+    @Value("${image.preprocessing.enabled:true}")
+    private boolean preprocessingEnabled;
+
+    @Value("${image.preprocessing.on-upload:true}")
+    private boolean preprocessingOnUpload;
+
+    @Value("${image.preprocessing.max-edge:1536}")
+    private int preprocessingMaxEdge;
+
+    @Value("${image.preprocessing.jpeg-quality:0.85}")
+    private float preprocessingJpegQuality;
+
+    @Value("${image.preprocessing.passthrough-max-bytes:524288}")
+    private long preprocessingPassthroughMaxBytes;
+
+    @Value("${image.preprocessing.max-pixels:50000000}")
+    private long preprocessingMaxPixels;
+
+    @Value("${image.cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    @Value("${image.cache.heap-max-bytes:67108864}")
+    private long cacheHeapMaxBytes;
+
+    @Value("${image.cache.disk-max-bytes:1073741824}")
+    private long cacheDiskMaxBytes;
+
+    @Value("${image.cache.disk-dir:${java.io.tmpdir}/widgera-image-cache}")
+    private String cacheDiskDir;
+
+    @Value("${image.cache.max-entry-bytes:2097152}")
+    private long cacheMaxEntryBytes;
+
+    @Value("${image.direct-upload.max-bytes:10485760}")
+    private long directUploadMaxBytes;
+
+    @Value("${image.direct-upload.url-ttl-seconds:900}")
+    private long directUploadUrlTtlSeconds;
+
+    @Value("${image.direct-upload.complete-within-seconds:3600}")
+    private long directUploadCompleteWithinSeconds;
+
+    @Value("${image.blobs.gc-grace-seconds:86400}")
+    private long blobsGcGraceSeconds;
+
+}
@@ -0,0 +1,89 @@
+package com.widgera.config;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Configuration
+public class PromptConfig {
+
+    @Value("${prompt.coalescing.enabled:true}")
+    private boolean coalescingEnabled;
+
+    @Value("${prompt.coalescing.shared-history:false}")
+    private boolean coalescingSharedHistory;
+
+    @Value("${prompt.coalescing.lease-seconds:120}")
+    private long coalescingLeaseSeconds;
+
+    @Value("${prompt.coalescing.result-ttl-seconds:30}")
+    private long coalescingResultTtlSeconds;
+
+    @Value("${prompt.coalescing.poll-interval-ms:250}")
+    private long coalescingPollIntervalMs;
+
+    @Value("${prompt.history.page-size:20}")
+    private int historyPageSize;
+
+    @Value("${prompt.history.max-page-size:100}")
+    private int historyMaxPageSize;
+
+    @Value("${prompt.history.cache-size:100}")
+    private int historyCacheSize;
+
+    @Value("${prompt.history.cache-ttl-seconds:604800}")
+    private long historyCacheTtlSeconds;
+
+    @Value("${prompt.history.schema-cache-size:1000}")
+    private int historySchemaCacheSize;
+
+    @Value("${prompt.history.id-block-size:50}")
+    private int historyIdBlockSize;
+
+    @Value("${prompt.history.write-behind.enabled:true}")
+    private boolean historyWriteBehindEnabled;
+
+    @Value("${prompt.history.write-behind.durable:false}")
+    private boolean historyWriteBehindDurable;
+
+    @Value("${prompt.history.write-behind.queue-capacity:10000}")
+    private int historyWriteBehindQueueCapacity;
+
+    @Value("${prompt.history.write-behind.batch-size:500}")
+    private int historyWriteBehindBatchSize;
+
+    @Value("${prompt.history.write-behind.max-attempts:5}")
+    private int historyWriteBehindMaxAttempts;
+
+    @Value("${prompt.history.write-behind.replay-after-seconds:60}")
+    private long historyWriteBehindReplayAfterSeconds;
+
+    @Value("${prompt.stream.timeout-ms:120000}")
+    private long streamTimeoutMs;
+
+    @Value("${prompt.batch.per-user-concurrency:4}")
+    private int batchPerUserConcurrency;
+
+    @Value("${prompt.batch.global-concurrency:32}")
+    private int batchGlobalConcurrency;
+
+    @Value("${prompt.batch.timeout-ms:600000}")
+    private long batchTimeoutMs;
+
+    @Value("${prompt.jobs.worker-enabled:true}")
+    private boolean jobsWorkerEnabled;
+
+    @Value("${prompt.jobs.worker-count:8}")
+    private int jobsWorkerCount;
+
+    @Value("${prompt.jobs.lease-seconds:300}")
+    private long jobsLeaseSeconds;
+
+    @Value("${prompt.jobs.max-attempts:3}")
+    private int jobsMaxAttempts;
+
+    @Value("${prompt.jobs.retention-seconds:604800}")
+    private long jobsRetentionSeconds;
+
+}
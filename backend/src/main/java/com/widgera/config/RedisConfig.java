@@ -37,10 +37,6 @@ public class RedisConfig {
 
         return RedisCacheManager.builder(connectionFactory)
                 .cacheDefaults(config)
-                .withCacheConfiguration("history",
-                        RedisCacheConfiguration.defaultCacheConfig()
-                                .entryTtl(Duration.ZERO)  // no TTL - evicted only when new history added
-                                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(serializer)))
                 .build();
     }
 }
@@ -0,0 +1,196 @@
+package com.widgera.config;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Schema changes that {@code ddl-auto: update} can't make (it only ever adds tables and columns).
+ * Runs after Hibernate has updated the schema; every step is idempotent, so it runs on each start.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+@Slf4j
+public class SchemaMigrations {
+
+    private static final String COLUMN_EXISTS_SQL =
+            "SELECT COUNT(*) FROM information_schema.columns WHERE table_name = ? AND column_name = ?";
+
+    // Generated, so Postgres maintains it on every insert; weights rank prompt matches above output matches
+    private static final String HISTORY_SEARCH_VECTOR_SQL = """
+            ALTER TABLE prompt_history ADD COLUMN IF NOT EXISTS search_vector tsvector
+                GENERATED ALWAYS AS (
+                    setweight(to_tsvector('english', coalesce(prompt, '')), 'A') ||
+                    setweight(jsonb_to_tsvector('english', coalesce(response_output, '{}'::jsonb), '["string"]'), 'B')
+                ) STORED
+            """;
+
+    // Must match HashUtils.fieldSetHash: SHA-256 over a 4-byte big-endian length prefix and the canonical string,
+    // in which each name is prefixed with its UTF-8 byte length (length() would count code points)
+    private static final String FIELD_SET_HASH_SQL = """
+            encode(sha256(int4send(octet_length(convert_to(c.canonical, 'UTF8'))) || convert_to(c.canonical, 'UTF8')), 'hex')
+              FROM (SELECT coalesce(string_agg(octet_length(convert_to(f.e->>'name', 'UTF8')) || ':' || (f.e->>'name')
+                                               || '=' || (f.e->>'type') || ';',
+                                               '' ORDER BY f.i), '') AS canonical
+                      FROM jsonb_array_elements(%s) WITH ORDINALITY AS f(e, i)) c
+            """;
+
+    private static final String INTERN_FIELD_SCHEMAS_SQL = """
+            INSERT INTO field_schema (hash, fields, created_at)
+            SELECT DISTINCT ON (hash) hash, field_structure, now()
+              FROM (SELECT field_structure, (SELECT %s) AS hash
+                      FROM prompt_history
+                     WHERE field_schema_id IS NULL AND field_structure IS NOT NULL) h
+            ON CONFLICT (hash) DO NOTHING
+            """.formatted(FIELD_SET_HASH_SQL.formatted("field_structure"));
+
+    // Linking drops the inline copy, which is where the storage goes
+    private static final String LINK_FIELD_SCHEMAS_SQL = """
+            UPDATE prompt_history p
+               SET field_schema_id = s.id, field_structure = NULL
+              FROM field_schema s
+             WHERE p.field_schema_id IS NULL AND p.field_structure IS NOT NULL
+               AND s.hash = (SELECT %s)
+            """.formatted(FIELD_SET_HASH_SQL.formatted("p.field_structure"));
+
+    private static final String COLUMN_TYPE_SQL =
+            "SELECT data_type FROM information_schema.columns WHERE table_name = ? AND column_name = ?";
+
+    // Both columns in one statement, so the table is rewritten once
+    private static final String HISTORY_JSONB_SQL = """
+            ALTER TABLE prompt_history
+                ALTER COLUMN field_structure TYPE jsonb USING field_structure::jsonb,
+                ALTER COLUMN response_output TYPE jsonb USING response_output::jsonb
+            """;
+
+    // History used to store https://<bucket>.s3.<region>.amazonaws.com/<key>; keep just the key
+    private static final String BACKFILL_HISTORY_IMAGE_KEY_SQL = """
+            UPDATE prompt_history
+               SET image_key = substring(image_url FROM position('.amazonaws.com/' IN image_url) + 15)
+             WHERE image_key IS NULL AND image_url LIKE 'https://%.amazonaws.com/%'
+            """;
+
+    // Rows the image_key backfill could not convert; user_images.s3_url is the last copy of those URLs
+    private static final String UNCONVERTED_HISTORY_SQL =
+            "SELECT COUNT(*) FROM prompt_history WHERE image_key IS NULL AND image_url IS NOT NULL";
+
+    // One blob per distinct image, counting its user_images rows; runs only while image_blobs is still empty
+    private static final String BACKFILL_IMAGE_BLOBS_SQL = """
+            INSERT INTO image_blobs (hash, storage_key, content_type, file_size, ref_count, created_at, updated_at)
+            SELECT image_hash, MIN(s3_key), MIN(content_type), MIN(file_size), COUNT(*), now(), now()
+              FROM user_images
+             WHERE NOT EXISTS (SELECT 1 FROM image_blobs)
+             GROUP BY image_hash
+            ON CONFLICT (hash) DO NOTHING
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StorageConfig storageConfig;
+
+    @PostConstruct
+    public void migrate() {
+        relaxS3Url();
+        backfillHistoryImageKeys();
+        dropS3Url();
+        migrateHistoryToJsonb();
+        addHistorySearch();
+        internHistoryFieldSchemas();
+
+        // Images from before shared blobs keep their own objects; the blob points at one of them
+        int blobs = jdbcTemplate.update(BACKFILL_IMAGE_BLOBS_SQL);
+        if (blobs > 0) {
+            log.info("Backfilled {} image_blobs from existing user_images", blobs);
+        }
+    }
+
+    /**
+     * The key in s3_key is all a backend needs, so s3_url is no longer written, and its NOT NULL would reject
+     * every insert. Relaxing it keeps the old URLs until {@code storage.migrations.drop-s3-url} removes the column.
+     */
+    private void relaxS3Url() {
+        if (columnExists("user_images", "s3_url")) {
+            jdbcTemplate.execute("ALTER TABLE user_images ALTER COLUMN s3_url DROP NOT NULL");
+        }
+    }
+
+    /**
+     * Opt-in, since it destroys data: drop s3_url once the image_key backfill has converted every history row.
+     */
+    private void dropS3Url() {
+        if (!storageConfig.isDropS3Url() || !columnExists("user_images", "s3_url")) {
+            return;
+        }
+        if (columnExists("prompt_history", "image_url")) {
+            Integer unconverted = jdbcTemplate.queryForObject(UNCONVERTED_HISTORY_SQL, Integer.class);
+            if (unconverted != null && unconverted > 0) {
+                log.warn("Keeping user_images.s3_url: {} prompt_history rows have an image_url but no image_key",
+                        unconverted);
+                return;
+            }
+        }
+        jdbcTemplate.execute("ALTER TABLE user_images DROP COLUMN s3_url");
+        log.info("Dropped user_images.s3_url");
+    }
+
+    private void backfillHistoryImageKeys() {
+        if (!columnExists("prompt_history", "image_url")) {
+            return;
+        }
+        int updated = jdbcTemplate.update(BACKFILL_HISTORY_IMAGE_KEY_SQL);
+        if (updated > 0) {
+            log.info("Backfilled image_key on {} prompt_history rows", updated);
+        }
+    }
+
+    private void migrateHistoryToJsonb() {
+        if ("text".equals(columnType("prompt_history", "response_output"))) {
+            // Rewrites the table under an exclusive lock; every row was written by Jackson, so the cast can't fail
+            jdbcTemplate.execute(HISTORY_JSONB_SQL);
+            log.info("Converted prompt_history JSON columns to jsonb");
+        }
+        // jsonb_ops for containment and key-exists filters
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_prompt_history_output " +
+                "ON prompt_history USING GIN (response_output)");
+    }
+
+    private void addHistorySearch() {
+        if (!columnExists("prompt_history", "search_vector")) {
+            // Computes the vector for every existing row, rewriting the table once
+            jdbcTemplate.execute(HISTORY_SEARCH_VECTOR_SQL);
+            log.info("Added prompt_history.search_vector");
+        }
+        // btree_gin lets one GIN index cover user_id too, so a search only touches the user's own entries
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS btree_gin");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_prompt_history_search " +
+                "ON prompt_history USING GIN (user_id, search_vector)");
+    }
+
+    /**
+     * Move field lists of rows from before field_schema into the table. Runs once in practice:
+     * afterwards no row has an inline list left.
+     */
+    private void internHistoryFieldSchemas() {
+        jdbcTemplate.execute("DROP INDEX IF EXISTS idx_prompt_history_fields");
+        int schemas = jdbcTemplate.update(INTERN_FIELD_SCHEMAS_SQL);
+        int linked = jdbcTemplate.update(LINK_FIELD_SCHEMAS_SQL);
+        if (linked > 0) {
+            log.info("Interned {} field schemas for {} prompt_history rows", schemas, linked);
+        }
+    }
+
+    private String columnType(String table, String column) {
+        List<String> types = jdbcTemplate.queryForList(COLUMN_TYPE_SQL, String.class, table, column);
+        return types.isEmpty() ? null : types.get(0);
+    }
+
+    private boolean columnExists(String table, String column) {
+        Integer count = jdbcTemplate.queryForObject(COLUMN_EXISTS_SQL, Integer.class, table, column);
+        return count != null && count > 0;
+    }
+}
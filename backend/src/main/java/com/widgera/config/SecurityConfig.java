@@ -1,8 +1,11 @@
 package com.widgera.config;
 
+import com.widgera.service.LocalObjectStore;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
@@ -37,8 +40,13 @@ public class SecurityConfig {
             .csrf(AbstractHttpConfigurer::disable)
             .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
+                // Async re-dispatches (SSE/streaming completion) belong to an already-authorized request
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 .requestMatchers("/api/auth/**").permitAll()
                 .requestMatchers("/api/health").permitAll()
+                // Local object store URLs are authorized by their HMAC signature, like S3 presigned URLs
+                .requestMatchers(HttpMethod.GET, LocalObjectStore.OBJECTS_PATH).permitAll()
+                .requestMatchers(HttpMethod.PUT, LocalObjectStore.OBJECTS_PATH).permitAll()
                 .anyRequest().authenticated()
             )
             .authenticationProvider(authenticationProvider())
@@ -0,0 +1,34 @@
+package com.widgera.config;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Configuration
+public class StorageConfig {
+
+    // s3 or local
+    @Value("${storage.type:s3}")
+    private String type;
+
+    @Value("${storage.presign.ttl-seconds:3600}")
+    private long presignTtlSeconds;
+
+    @Value("${storage.presign.refresh-margin-seconds:900}")
+    private long presignRefreshMarginSeconds;
+
+    @Value("${storage.local.root:./data/objects}")
+    private String localRoot;
+
+    // Prefix for signed object URLs; empty makes them relative to the frontend's origin
+    @Value("${storage.local.base-url:}")
+    private String localBaseUrl;
+
+    @Value("${storage.local.signing-secret}")
+    private String localSigningSecret;
+
+    // Irreversible; only takes effect once every history row has its image_key
+    @Value("${storage.migrations.drop-s3-url:false}")
+    private boolean dropS3Url;
+}
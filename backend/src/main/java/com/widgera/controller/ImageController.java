@@ -2,10 +2,16 @@ package com.widgera.controller;
 
 import com.widgera.dto.ImageUploadResponse;
 import com.widgera.dto.PresignedUrlResponse;
+import com.widgera.dto.UploadIntentRequest;
+import com.widgera.dto.UploadIntentResponse;
 import com.widgera.entity.User;
+import com.widgera.entity.UserImage;
 import com.widgera.repository.UserImageRepository;
+import com.widgera.service.DirectUploadService;
+import com.widgera.service.PresignedUrlCache;
 import com.widgera.service.S3Service;
 import com.widgera.service.UserService;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -15,6 +21,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/images")
@@ -25,6 +32,7 @@ public class ImageController {
     private final S3Service s3Service;
     private final UserService userService;
     private final UserImageRepository userImageRepository;
+    private final DirectUploadService directUploadService;
 
     @PostMapping("/upload")
     public ResponseEntity<ImageUploadResponse> uploadImage(
@@ -38,7 +46,7 @@ public class ImageController {
         S3Service.UploadResult result = s3Service.uploadImage(file, user);
 
         // presigned URL for immediate use
-        String presignedUrl = s3Service.generatePresignedUrlFromS3Url(result.imageUrl());
+        String presignedUrl = s3Service.presignedUrl(result.userImage().getStorageKey()).url();
 
         ImageUploadResponse response = ImageUploadResponse.builder()
                 .imageId(result.userImage().getId())
@@ -53,6 +61,42 @@ public class ImageController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Step 1 of a direct upload: a presigned PUT URL for the file, or the existing image if the user
+     * already uploaded the same content.
+     */
+    @PostMapping("/upload-intent")
+    public ResponseEntity<UploadIntentResponse> createUploadIntent(
+            @Valid @RequestBody UploadIntentRequest request,
+            @AuthenticationPrincipal UserDetails userDetails
+    ) {
+        User user = userService.getUserByUsername(userDetails.getUsername());
+        return ResponseEntity.ok(directUploadService.createIntent(request, user));
+    }
+
+    /**
+     * Step 2 of a direct upload, after the PUT: verify the stored file and create the image.
+     */
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<ImageUploadResponse> completeUpload(
+            @PathVariable Long uploadId,
+            @AuthenticationPrincipal UserDetails userDetails
+    ) {
+        User user = userService.getUserByUsername(userDetails.getUsername());
+
+        return directUploadService.complete(uploadId, user)
+                .map(result -> ResponseEntity.ok(ImageUploadResponse.builder()
+                        .imageId(result.userImage().getId())
+                        .imageUrl(s3Service.presignedUrl(result.userImage().getStorageKey()).url())
+                        .filename(result.userImage().getOriginalFilename())
+                        .duplicate(result.isDuplicate())
+                        .message(result.isDuplicate()
+                                ? "Image already exists, returning existing URL"
+                                : "Image uploaded successfully")
+                        .build()))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     /**
      * Get a presigned URL for secure access to an image.
      * Only the owner of the image can access it.
@@ -66,16 +110,30 @@ public class ImageController {
 
         return userImageRepository.findByIdAndUser(imageId, user)
                 .map(image -> {
-                    String presignedUrl = s3Service.generatePresignedUrlFromS3Url(image.getS3Url());
+                    PresignedUrlCache.PresignedUrl presignedUrl = s3Service.presignedUrl(image.getStorageKey());
                     return ResponseEntity.ok(PresignedUrlResponse.builder()
                             .imageId(imageId)
-                            .url(presignedUrl)
-                            .expiresInSeconds(3600)
+                            .url(presignedUrl.url())
+                            .expiresInSeconds(presignedUrl.expiresInSeconds())
                             .build());
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    /**
+     * Delete one of the user's images. Its storage is shared by content and reclaimed once unused.
+     */
+    @DeleteMapping("/{imageId}")
+    public ResponseEntity<Void> deleteImage(
+            @PathVariable Long imageId,
+            @AuthenticationPrincipal UserDetails userDetails
+    ) {
+        User user = userService.getUserByUsername(userDetails.getUsername());
+        return s3Service.deleteImage(imageId, user)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
     /**
      * Get all images for the authenticated user with presigned URLs.
      */
@@ -85,12 +143,16 @@ public class ImageController {
     ) {
         User user = userService.getUserByUsername(userDetails.getUsername());
 
-        List<PresignedUrlResponse> images = userImageRepository.findByUser(user).stream()
+        List<UserImage> userImages = userImageRepository.findByUser(user);
+        Map<String, PresignedUrlCache.PresignedUrl> urls =
+                s3Service.presignedUrls(userImages.stream().map(UserImage::getStorageKey).toList());
+
+        List<PresignedUrlResponse> images = userImages.stream()
                 .map(image -> PresignedUrlResponse.builder()
                         .imageId(image.getId())
-                        .url(s3Service.generatePresignedUrlFromS3Url(image.getS3Url()))
+                        .url(urls.get(image.getStorageKey()).url())
                         .originalFilename(image.getOriginalFilename())
-                        .expiresInSeconds(3600)
+                        .expiresInSeconds(urls.get(image.getStorageKey()).expiresInSeconds())
                         .build())
                 .toList();
 
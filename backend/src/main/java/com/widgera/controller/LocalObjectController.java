@@ -0,0 +1,108 @@
+package com.widgera.controller;
+
+import com.widgera.service.LocalObjectStore;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * Serves {@link LocalObjectStore} objects to browsers and accepts their direct uploads. Requests carry no JWT; the HMAC-signed,
+ * expiring URL is the authorization, the same way an S3 presigned URL is.
+ */
+@RestController
+@ConditionalOnProperty(name = "storage.type", havingValue = "local")
+@RequiredArgsConstructor
+@Slf4j
+public class LocalObjectController {
+
+    // Tomcat's NIO connector writes the file with sendfile(2) once the servlet returns
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final LocalObjectStore localObjectStore;
+
+    @GetMapping(LocalObjectStore.OBJECTS_PATH)
+    public void getObject(
+            @RequestParam String key,
+            @RequestParam long expires,
+            @RequestParam String signature,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        if (!localObjectStore.verifyGet(key, expires, signature)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid or expired signature");
+            return;
+        }
+
+        Path path = localObjectStore.resolve(key);
+        try (FileChannel channel = FileChannel.open(path)) {
+            long size = channel.size();
+            response.setContentType(localObjectStore.contentType(path));
+            response.setContentLengthLong(size);
+            long maxAge = Math.max(0, expires - Instant.now().getEpochSecond());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=" + maxAge + ", immutable");
+
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                request.setAttribute(SENDFILE_FILENAME, path.toString());
+                request.setAttribute(SENDFILE_START, 0L);
+                request.setAttribute(SENDFILE_END, size);
+                return;
+            }
+
+            // No sendfile (another connector, or TLS): stream with transferTo without loading the object on the heap
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out);
+            }
+        } catch (NoSuchFileException e) {
+            log.debug("Local object not found: {}", key);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    /**
+     * Target of a presigned PUT: the body is stored only if it matches the signed size and SHA-256.
+     */
+    @PutMapping(LocalObjectStore.OBJECTS_PATH)
+    public ResponseEntity<Void> putObject(
+            @RequestParam String key,
+            @RequestParam long expires,
+            @RequestParam long size,
+            @RequestParam String sha256,
+            @RequestParam String signature,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            HttpServletRequest request
+    ) throws IOException {
+        if (!localObjectStore.verifyPut(key, expires, contentType, size, sha256, signature)) {
+            return ResponseEntity.status(HttpServletResponse.SC_FORBIDDEN).build();
+        }
+        if (request.getContentLengthLong() > size) {
+            return ResponseEntity.status(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE).build();
+        }
+        if (!localObjectStore.putVerified(key, request.getInputStream(), contentType, size, sha256)) {
+            log.debug("Rejected upload to {}: body does not match the signed size and checksum", key);
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok().build();
+    }
+}
@@ -1,21 +1,40 @@
 package com.widgera.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.widgera.config.PromptConfig;
+import com.widgera.dto.BatchPromptRequest;
+import com.widgera.dto.HistoryPageResponse;
+import com.widgera.dto.HistoryQueryRequest;
+import com.widgera.dto.HistorySearchRequest;
 import com.widgera.dto.HistoryResponse;
+import com.widgera.dto.PromptJobResponse;
 import com.widgera.dto.PromptRequest;
 import com.widgera.dto.PromptResponse;
 import com.widgera.entity.User;
+import com.widgera.service.PromptBatchService;
+import com.widgera.service.PromptJobService;
 import com.widgera.service.PromptService;
+import com.widgera.service.PresignedUrlCache;
 import com.widgera.service.S3Service;
 import com.widgera.service.UserService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 
 @RestController
 @RequestMapping("/api/prompt")
@@ -24,35 +43,194 @@ import java.util.List;
 public class PromptController {
 
     private final PromptService promptService;
+    private final PromptBatchService promptBatchService;
+    private final PromptJobService promptJobService;
     private final S3Service s3Service;
     private final UserService userService;
+    private final PromptConfig promptConfig;
+    private final ExecutorService promptExecutor;
+    private final ObjectMapper objectMapper;
 
+    /**
+     * Process a prompt synchronously, or with async=true queue it as a job and return 202
+     * with the job id to poll at /api/prompt/jobs/{id}.
+     */
     @PostMapping
-    public ResponseEntity<PromptResponse> submitPrompt(
+    public ResponseEntity<?> submitPrompt(
             @Valid @RequestBody PromptRequest request,
+            @RequestParam(defaultValue = "false") boolean async,
             @AuthenticationPrincipal UserDetails userDetails
     ) {
-        log.info("Prompt submission request from user: {}", userDetails.getUsername());
+        log.info("Prompt submission request from user: {} (async={})", userDetails.getUsername(), async);
         User user = userService.getUserByUsername(userDetails.getUsername());
+
+        if (async) {
+            PromptJobResponse job = promptJobService.submit(request, user);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/prompt/jobs/" + job.getJobId()))
+                    .body(job);
+        }
+
         PromptResponse response = promptService.processPrompt(request, user);
         return ResponseEntity.ok(response);
     }
 
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<PromptJobResponse> getJob(
+            @PathVariable Long jobId,
+            @AuthenticationPrincipal UserDetails userDetails
+    ) {
+        User user = userService.getUserByUsername(userDetails.getUsername());
+        return promptJobService.getJob(jobId, user)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Stream a prompt result as Server-Sent Events.
+     * Emits one "field" event per completed field, then "complete" with the persisted historyId,
+     * or "error" if the pipeline fails after the stream has started.
+     */
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamPrompt(
+            @Valid @RequestBody PromptRequest request,
+            @AuthenticationPrincipal UserDetails userDetails
+    ) {
+        log.info("Streaming prompt request from user: {}", userDetails.getUsername());
+        User user = userService.getUserByUsername(userDetails.getUsername());
+        SseEmitter emitter = new SseEmitter(promptConfig.getStreamTimeoutMs());
+
+        promptExecutor.execute(() -> {
+            try {
+                PromptResponse response = promptService.streamPrompt(request, user, (name, value) ->
+                        sendEvent(emitter, "field", Map.of("name", name, "value", value)));
+                sendEvent(emitter, "complete", response);
+            } catch (Exception e) {
+                log.warn("Prompt stream failed for user {}: {}", user.getUsername(), e.getMessage());
+                sendEvent(emitter, "error", Map.of("message", e.getMessage() != null ? e.getMessage() : "Stream failed"));
+            } finally {
+                emitter.complete();
+            }
+        });
+
+        // Keep nginx from buffering the event stream
+        return ResponseEntity.ok()
+                .header("X-Accel-Buffering", "no")
+                .body(emitter);
+    }
+
+    /**
+     * Submit many prompts at once. Results stream back as NDJSON in completion order,
+     * followed by a summary line with the persisted history ids.
+     */
+    @PostMapping(value = "/batch", produces = "application/x-ndjson")
+    public ResponseEntity<ResponseBodyEmitter> submitBatch(
+            @Valid @RequestBody BatchPromptRequest request,
+            @AuthenticationPrincipal UserDetails userDetails
+    ) {
+        log.info("Batch prompt submission of {} prompts from user: {}",
+                request.getPrompts().size(), userDetails.getUsername());
+        User user = userService.getUserByUsername(userDetails.getUsername());
+
+        // A batch may run far longer than an ordinary async request, so it carries its own timeout
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(promptConfig.getBatchTimeoutMs());
+
+        promptExecutor.execute(() -> {
+            try {
+                promptBatchService.processBatch(request.getPrompts(), user, line -> {
+                    // Items complete concurrently; one line at a time onto the wire
+                    synchronized (emitter) {
+                        try {
+                            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                            objectMapper.writeValue(bytes, line);
+                            bytes.write('\n');
+                            emitter.send(bytes.toByteArray(), MediaType.APPLICATION_OCTET_STREAM);
+                        } catch (IOException | IllegalStateException e) {
+                            log.debug("Dropping batch line for index {}: {}", line.getIndex(), e.getMessage());
+                        }
+                    }
+                });
+                emitter.complete();
+            } catch (Exception e) {
+                log.warn("Batch failed for user {}: {}", user.getUsername(), e.getMessage());
+                emitter.completeWithError(e);
+            }
+        });
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .header("X-Accel-Buffering", "no")
+                .body(emitter);
+    }
+
+    private void sendEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away; the pipeline still finishes and persists the history row
+            log.debug("Dropping SSE event '{}': {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * History, newest first, one page at a time. Pass the returned nextCursor back to get the next page.
+     */
     @GetMapping("/history")
-    public ResponseEntity<List<HistoryResponse>> getAllHistory(
+    public ResponseEntity<HistoryPageResponse> getHistory(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
             @AuthenticationPrincipal UserDetails userDetails
     ) {
-        log.info("Full history request from user: {}", userDetails.getUsername());
+        log.info("History page request from user: {}", userDetails.getUsername());
         User user = userService.getUserByUsername(userDetails.getUsername());
-        List<HistoryResponse> history = promptService.getAllHistory(user);
+        return ResponseEntity.ok(withImageUrls(promptService.getHistoryPage(user, cursor, limit)));
+    }
 
-        // Generate fresh presigned URLs (not cached, always 1hr expiry)
+    /**
+     * History filtered on one extracted output value, e.g. {@code ?field=total&gt=100} or
+     * {@code ?field=vendor&eq=ACME}. Paged like /history.
+     */
+    @GetMapping("/history/query")
+    public ResponseEntity<HistoryPageResponse> queryHistory(
+            @Valid @ModelAttribute HistoryQueryRequest query,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @AuthenticationPrincipal UserDetails userDetails
+    ) {
+        log.info("History query on field '{}' from user: {}", query.getField(), userDetails.getUsername());
+        User user = userService.getUserByUsername(userDetails.getUsername());
+        return ResponseEntity.ok(withImageUrls(promptService.queryHistory(user, query, cursor, limit)));
+    }
+
+    /**
+     * Full-text search over prompts and extracted values, e.g. {@code ?q="late fee" invoice}.
+     * Best match first; paged with nextCursor like /history.
+     */
+    @GetMapping("/history/search")
+    public ResponseEntity<HistoryPageResponse> searchHistory(
+            @Valid @ModelAttribute HistorySearchRequest search,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @AuthenticationPrincipal UserDetails userDetails
+    ) {
+        log.info("History search from user: {}", userDetails.getUsername());
+        User user = userService.getUserByUsername(userDetails.getUsername());
+        return ResponseEntity.ok(withImageUrls(promptService.searchHistory(user, search.getQ(), cursor, limit)));
+    }
+
+    private HistoryPageResponse withImageUrls(HistoryPageResponse page) {
+        List<HistoryResponse> history = page.getItems();
+
+        // Presigned URLs come from the URL cache, so repeat visits get the same, browser-cacheable URLs
+        Map<String, PresignedUrlCache.PresignedUrl> urls = s3Service.presignedUrls(history.stream()
+                .map(HistoryResponse::getImageUrl)
+                .filter(Objects::nonNull)
+                .toList());
         history.forEach(h -> {
             if (h.getImageUrl() != null) {
-                h.setImageUrl(s3Service.generatePresignedUrlFromS3Url(h.getImageUrl()));
+                h.setImageUrl(urls.get(h.getImageUrl()).url());
             }
         });
-
-        return ResponseEntity.ok(history);
+        return page;
     }
 }
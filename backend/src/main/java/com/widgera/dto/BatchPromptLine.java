@@ -0,0 +1,31 @@
+package com.widgera.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * One NDJSON line of a batch response.
+ * "result" and "error" lines arrive in completion order and carry the request's index;
+ * a final "summary" line maps indexes to the persisted history ids.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchPromptLine {
+
+    private String type;
+    private Integer index;
+    private Map<String, Object> output;
+    private Boolean cached;
+    private String message;
+    private Integer succeeded;
+    private Integer failed;
+    private Map<Integer, Long> historyIds;
+}
@@ -0,0 +1,21 @@
+package com.widgera.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchPromptRequest {
+
+    @NotEmpty(message = "At least one prompt is required")
+    @Size(max = 500, message = "A batch may contain at most 500 prompts")
+    @Valid
+    private List<PromptRequest> prompts;
+}
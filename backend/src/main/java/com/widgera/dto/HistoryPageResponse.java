@@ -0,0 +1,23 @@
+package com.widgera.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryPageResponse implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private List<HistoryResponse> items;
+    private String nextCursor;  // null on the last page
+}
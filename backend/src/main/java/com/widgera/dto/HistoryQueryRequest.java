@@ -0,0 +1,33 @@
+package com.widgera.dto;
+
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.NotBlank;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Filter on one extracted output value, bound from the query string of /api/prompt/history/query.
+ * eq matches numbers and strings exactly; the range bounds match numeric values only.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryQueryRequest {
+
+    @NotBlank(message = "Field is required")
+    private String field;
+
+    private String eq;
+    private BigDecimal gt;
+    private BigDecimal gte;
+    private BigDecimal lt;
+    private BigDecimal lte;
+
+    @AssertTrue(message = "At least one of eq, gt, gte, lt, lte is required")
+    public boolean isConditionPresent() {
+        return eq != null || gt != null || gte != null || lt != null || lte != null;
+    }
+}
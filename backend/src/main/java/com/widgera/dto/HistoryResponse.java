@@ -1,5 +1,6 @@
 package com.widgera.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -26,4 +27,8 @@ public class HistoryResponse implements Serializable {
     private List<FieldDefinition> fields;
     private Map<String, Object> output;
     private LocalDateTime createdAt;
+
+    // Search results only: matching fragments with terms wrapped in <mark></mark>
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String highlight;
 }
@@ -0,0 +1,20 @@
+package com.widgera.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Full-text query for /api/prompt/history/search, in web search syntax: words, "quoted phrases", -excluded, or.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistorySearchRequest {
+
+    @NotBlank(message = "Search query is required")
+    @Size(max = 200, message = "Search query must be at most 200 characters")
+    private String q;
+}
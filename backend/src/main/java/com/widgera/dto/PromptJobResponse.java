@@ -0,0 +1,25 @@
+package com.widgera.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PromptJobResponse {
+
+    private Long jobId;
+    private String status;
+    private Integer attempts;
+    private PromptResponse result;  // set once SUCCEEDED
+    private String error;           // set once FAILED
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+}
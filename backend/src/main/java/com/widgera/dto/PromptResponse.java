@@ -17,4 +17,5 @@ public class PromptResponse {
     private String prompt;
     private Long imageId;
     private Long historyId;
+    private boolean cached;  // true when served from the result cache
 }
@@ -0,0 +1,27 @@
+package com.widgera.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadIntentResponse {
+
+    // Set when the user already has this image; nothing needs uploading
+    private boolean duplicate;
+    private Long imageId;
+    private String imageUrl;
+
+    // Otherwise: PUT the file to uploadUrl with these headers, then POST /api/images/{uploadId}/complete
+    private Long uploadId;
+    private String uploadUrl;
+    private String method;
+    private Map<String, String> headers;
+    private Integer expiresInSeconds;
+}
@@ -0,0 +1,38 @@
+package com.widgera.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.LocalDateTime;
+
+/**
+ * One distinct ordered field list, stored once and referenced from {@link PromptHistory} by id.
+ * Rows are immutable and never deleted, so their ids can be cached indefinitely.
+ */
+@Entity
+@Table(name = "field_schema")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FieldSchema {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "hash", length = 64, nullable = false, unique = true)
+    private String hash;  // HashUtils.fieldSetHash of the list
+
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "fields", columnDefinition = "jsonb", nullable = false)
+    private String fields;  // JSON array of field definitions
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,50 @@
+package com.widgera.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * One stored copy of some image content, shared by every {@link UserImage} with the same hash.
+ * {@code refCount} is the number of those rows; blobs that have sat at zero for a while are garbage collected.
+ */
+@Entity
+@Table(name = "image_blobs", indexes = {
+    @Index(name = "idx_image_blobs_ref_count_updated", columnList = "ref_count, updated_at")
+})
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageBlob {
+
+    // refCount while the collector is deleting the blob's objects
+    public static final int COLLECTING = -1;
+
+    @Id
+    @Column(name = "hash", length = 64)
+    private String hash;  // SHA-256 of the content
+
+    @Column(name = "storage_key", nullable = false)
+    private String storageKey;
+
+    @Column(name = "content_type")
+    private String contentType;
+
+    @Column(name = "file_size")
+    private Long fileSize;
+
+    @Column(name = "ref_count", nullable = false)
+    private int refCount;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // Last reference change; the GC grace period counts from here
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
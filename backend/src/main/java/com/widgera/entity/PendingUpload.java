@@ -0,0 +1,58 @@
+package com.widgera.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A direct-to-storage upload that was handed a presigned PUT URL but hasn't been completed yet.
+ * Rows past their {@code completeBy} are swept along with whatever was uploaded to their key.
+ */
+@Entity
+@Table(name = "pending_uploads", indexes = {
+    @Index(name = "idx_pending_uploads_complete_by", columnList = "complete_by")
+})
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PendingUpload {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    @Column(name = "storage_key", nullable = false)
+    private String storageKey;
+
+    @Column(name = "image_hash", nullable = false)
+    private String imageHash;  // SHA-256 the client declared; the upload URL only accepts a body with this hash
+
+    @Column(name = "file_size", nullable = false)
+    private Long fileSize;
+
+    @Column(name = "content_type", nullable = false)
+    private String contentType;
+
+    @Column(name = "original_filename")
+    private String originalFilename;
+
+    @Column(name = "complete_by", nullable = false)
+    private LocalDateTime completeBy;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
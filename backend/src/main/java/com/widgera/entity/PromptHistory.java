@@ -5,11 +5,17 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 
 @Entity
-@Table(name = "prompt_history")
+@Table(name = "prompt_history", indexes = {
+    // Serves keyset-paged history: WHERE user_id = ? AND (created_at, id) < (?, ?) ORDER BY created_at DESC, id DESC
+    @Index(name = "idx_prompt_history_user_created_id", columnList = "user_id, created_at DESC, id DESC")
+})
 @Data
 @Builder
 @NoArgsConstructor
@@ -27,13 +33,22 @@ public class PromptHistory {
     @Column(columnDefinition = "TEXT", nullable = false)
     private String prompt;
 
-    @Column(name = "image_url")
-    private String imageUrl;
+    // Object store key of the image; URLs are signed when history is read
+    @Column(name = "image_key")
+    private String imageKey;
 
-    @Column(name = "field_structure", columnDefinition = "TEXT")
-    private String fieldStructure;  // JSON string of field definitions
+    // The field list, interned in field_schema; see FieldSchemaRegistry
+    @Column(name = "field_schema_id")
+    private Long fieldSchemaId;
 
-    @Column(name = "response_output", columnDefinition = "TEXT")
+    // Inline field list of rows from before field_schema; null on newer rows
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "field_structure", columnDefinition = "jsonb")
+    private String fieldStructure;
+
+    // jsonb, so outputs can be filtered in the database; GIN indexes are created in SchemaMigrations
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "response_output", columnDefinition = "jsonb")
     private String responseOutput;  // JSON string of LLM response
 
     @Column(name = "created_at")
@@ -41,6 +56,7 @@ public class PromptHistory {
 
     @PrePersist
     protected void onCreate() {
-        createdAt = LocalDateTime.now();
+        // Truncated to what Postgres stores, so cached copies and history cursors match the row exactly
+        createdAt = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
     }
 }
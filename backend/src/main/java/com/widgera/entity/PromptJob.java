@@ -0,0 +1,71 @@
+package com.widgera.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "prompt_jobs", indexes = {
+    @Index(name = "idx_prompt_jobs_status_created", columnList = "status, created_at")
+})
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PromptJob {
+
+    public enum Status {
+        PENDING, RUNNING, SUCCEEDED, FAILED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    @Column(name = "request_payload", columnDefinition = "TEXT", nullable = false)
+    private String requestPayload;  // JSON PromptRequest
+
+    @Column(name = "result_payload", columnDefinition = "TEXT")
+    private String resultPayload;  // JSON PromptResponse once SUCCEEDED
+
+    @Column(name = "error_message", columnDefinition = "TEXT")
+    private String errorMessage;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "lease_owner")
+    private String leaseOwner;  // worker currently holding the job
+
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;  // RUNNING jobs past this are reclaimable
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
@@ -11,6 +11,8 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "user_images", uniqueConstraints = {
     @UniqueConstraint(columnNames = {"user_id", "image_hash"})
+}, indexes = {
+    @Index(name = "idx_user_images_image_hash", columnList = "image_hash")
 })
 @Data
 @Builder
@@ -29,11 +31,10 @@ public class UserImage {
     @Column(name = "image_hash", nullable = false)
     private String imageHash;  // SHA-256 hash for duplicate detection
 
+    // Key of the shared ImageBlob (blobs/{hash}); older rows have their own images/{userId}/{uuid}.jpg.
+    // The column predates non-S3 backends
     @Column(name = "s3_key", nullable = false)
-    private String s3Key;
-
-    @Column(name = "s3_url", nullable = false)
-    private String s3Url;
+    private String storageKey;
 
     @Column(name = "original_filename")
     private String originalFilename;
@@ -44,6 +45,19 @@ public class UserImage {
     @Column(name = "file_size")
     private Long fileSize;
 
+    // Model-optimized variant sent to the LLM; equals the original's key when it is sent as-is
+    @Column(name = "variant_s3_key")
+    private String variantStorageKey;
+
+    @Column(name = "variant_content_type")
+    private String variantContentType;
+
+    @Column(name = "variant_file_size")
+    private Long variantFileSize;
+
+    @Column(name = "variant_hash")
+    private String variantHash;
+
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
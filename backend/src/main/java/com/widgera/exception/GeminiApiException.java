@@ -0,0 +1,26 @@
+package com.widgera.exception;
+
+import lombok.Getter;
+
+/**
+ * Gemini answered with a non-2xx status.
+ */
+@Getter
+public class GeminiApiException extends LlmException {
+
+    private final int statusCode;
+
+    // Gemini's error payload, for telling failures with the same status apart; not shown to clients
+    private final String errorBody;
+
+    public GeminiApiException(int statusCode) {
+        this(statusCode, null);
+    }
+
+    public GeminiApiException(int statusCode, String errorBody) {
+        super("Gemini API returned status " + statusCode,
+                statusCode == 408 || statusCode == 429 || statusCode >= 500);
+        this.statusCode = statusCode;
+        this.errorBody = errorBody;
+    }
+}
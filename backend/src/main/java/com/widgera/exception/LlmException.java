@@ -1,12 +1,27 @@
 package com.widgera.exception;
 
+import lombok.Getter;
+
+@Getter
 public class LlmException extends RuntimeException {
 
+    private final boolean retryable;  // transient upstream failure (5xx, 429, timeout, network)
+
     public LlmException(String message) {
-        super(message);
+        this(message, false);
     }
 
     public LlmException(String message, Throwable cause) {
+        this(message, cause, false);
+    }
+
+    public LlmException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    public LlmException(String message, Throwable cause, boolean retryable) {
         super(message, cause);
+        this.retryable = retryable;
     }
 }
@@ -0,0 +1,9 @@
+package com.widgera.repository;
+
+import com.widgera.entity.FieldSchema;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface FieldSchemaRepository extends JpaRepository<FieldSchema, Long> {
+}
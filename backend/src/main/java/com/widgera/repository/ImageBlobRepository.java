@@ -0,0 +1,15 @@
+package com.widgera.repository;
+
+import com.widgera.entity.ImageBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+
+    List<ImageBlob> findTop100ByRefCountLessThanEqualAndUpdatedAtBeforeOrderByUpdatedAt(int refCount, LocalDateTime cutoff);
+
+}
@@ -0,0 +1,31 @@
+package com.widgera.repository;
+
+import com.widgera.entity.PendingUpload;
+import com.widgera.entity.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PendingUploadRepository extends JpaRepository<PendingUpload, Long> {
+
+    Optional<PendingUpload> findByIdAndUser(Long id, User user);
+
+    List<PendingUpload> findTop100ByCompleteByBeforeOrderByCompleteBy(LocalDateTime cutoff);
+
+    /**
+     * Delete the row if it is still pending; whoever gets 1 back owns cleaning up (or keeping) its object.
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM PendingUpload p WHERE p.id = :id")
+    int claim(@Param("id") Long id);
+
+}
@@ -1,19 +1,29 @@
 package com.widgera.repository;
 
 import com.widgera.entity.PromptHistory;
-import com.widgera.entity.User;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface PromptHistoryRepository extends JpaRepository<PromptHistory, Long> {
 
-    List<PromptHistory> findByUserOrderByCreatedAtDesc(User user);
+    // Keyset pages, newest first; both are range scans on idx_prompt_history_user_created_id
 
-    Page<PromptHistory> findByUserOrderByCreatedAtDesc(User user, Pageable pageable);
+    @Query(value = "SELECT * FROM prompt_history WHERE user_id = :userId " +
+            "ORDER BY created_at DESC, id DESC LIMIT :limit", nativeQuery = true)
+    List<PromptHistory> findFirstPage(@Param("userId") Long userId, @Param("limit") int limit);
+
+    @Query(value = "SELECT * FROM prompt_history WHERE user_id = :userId " +
+            "AND (created_at, id) < (:createdAt, :id) " +
+            "ORDER BY created_at DESC, id DESC LIMIT :limit", nativeQuery = true)
+    List<PromptHistory> findPageAfter(@Param("userId") Long userId,
+                                      @Param("createdAt") LocalDateTime createdAt,
+                                      @Param("id") Long id,
+                                      @Param("limit") int limit);
 
 }
@@ -0,0 +1,15 @@
+package com.widgera.repository;
+
+import com.widgera.entity.PromptJob;
+import com.widgera.entity.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface PromptJobRepository extends JpaRepository<PromptJob, Long> {
+
+    Optional<PromptJob> findByIdAndUser(Long id, User user);
+
+}
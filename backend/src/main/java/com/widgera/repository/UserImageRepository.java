@@ -3,8 +3,13 @@ package com.widgera.repository;
 import com.widgera.entity.User;
 import com.widgera.entity.UserImage;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,4 +22,23 @@ public interface UserImageRepository extends JpaRepository<UserImage, Long> {
 
     List<UserImage> findByUser(User user);
 
+    List<UserImage> findByUserAndIdIn(User user, Collection<Long> ids);
+
+    // Any row for the same content that already has an LLM variant, so it can be shared
+    Optional<UserImage> findFirstByImageHashAndVariantStorageKeyIsNotNull(String imageHash);
+
+    @Modifying
+    @Query("DELETE FROM UserImage i WHERE i.id = :id")
+    int deleteImage(@Param("id") Long id);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE UserImage i SET i.variantStorageKey = :variantStorageKey, i.variantContentType = :variantContentType, " +
+            "i.variantFileSize = :variantFileSize, i.variantHash = :variantHash WHERE i.id = :id")
+    int updateVariant(@Param("id") Long id,
+                      @Param("variantStorageKey") String variantStorageKey,
+                      @Param("variantContentType") String variantContentType,
+                      @Param("variantFileSize") Long variantFileSize,
+                      @Param("variantHash") String variantHash);
+
 }
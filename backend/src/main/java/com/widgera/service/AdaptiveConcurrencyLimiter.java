@@ -0,0 +1,101 @@
+package com.widgera.service;
+
+import com.widgera.config.GeminiConfig;
+import com.widgera.exception.RateLimitExceededException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AIMD limit on concurrent Gemini calls from this node.
+ * The limit grows by roughly one per round-trip while calls are healthy and shrinks
+ * multiplicatively on errors or when latency climbs well above its long-run average, i.e. when
+ * Gemini starts queueing. Calls over the limit are rejected immediately instead of piling up threads.
+ */
+@Service
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    // Weight of each sample in the long-run latency average
+    private static final double LATENCY_SMOOTHING = 0.05;
+
+    private final GeminiConfig geminiConfig;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter rejections;
+    private double limit;
+    private double averageLatencyMs;
+
+    public AdaptiveConcurrencyLimiter(GeminiConfig geminiConfig, MeterRegistry meterRegistry) {
+        this.geminiConfig = geminiConfig;
+        this.limit = geminiConfig.getLimiterInitialLimit();
+        this.rejections = Counter.builder("widgera.llm.limiter.rejections")
+                .tag("reason", "concurrency")
+                .description("Gemini calls rejected by the adaptive concurrency limit")
+                .register(meterRegistry);
+        Gauge.builder("widgera.llm.limiter.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current adaptive Gemini concurrency limit")
+                .register(meterRegistry);
+        Gauge.builder("widgera.llm.limiter.inflight", inFlight, AtomicInteger::get)
+                .description("Gemini calls currently in flight")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A slot held for the duration of one Gemini call. Release exactly once.
+     */
+    public final class Permit {
+
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        public synchronized void release(boolean success) {
+            if (released) {
+                return;
+            }
+            released = true;
+            inFlight.decrementAndGet();
+            onSample((System.nanoTime() - startNanos) / 1_000_000.0, success);
+        }
+    }
+
+    public Permit acquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) getLimit()) {
+                rejections.increment();
+                throw new RateLimitExceededException("LLM service is at capacity, please retry shortly", 1);
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit();
+            }
+        }
+    }
+
+    public synchronized double getLimit() {
+        return limit;
+    }
+
+    private synchronized void onSample(double latencyMs, boolean success) {
+        boolean slow = averageLatencyMs > 0
+                && latencyMs > averageLatencyMs * geminiConfig.getLimiterLatencyTolerance();
+
+        if (!success || slow) {
+            limit = Math.max(geminiConfig.getLimiterMinLimit(), limit * geminiConfig.getLimiterBackoffRatio());
+            log.debug("Gemini limit decreased to {} (latency {}ms, avg {}ms, success {})",
+                    (int) limit, (long) latencyMs, (long) averageLatencyMs, success);
+        } else {
+            limit = Math.min(geminiConfig.getLimiterMaxLimit(), limit + 1.0 / limit);
+        }
+
+        // Only successful calls describe normal latency; failures are often fast or timeouts
+        if (success) {
+            averageLatencyMs = averageLatencyMs == 0
+                    ? latencyMs
+                    : averageLatencyMs + LATENCY_SMOOTHING * (latencyMs - averageLatencyMs);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.widgera.dto.FieldDefinition;
+
+import java.util.*;
+
+/**
+ * Everything derived from one ordered field list: the Gemini responseSchema, the output token
+ * bound and the plan for coercing the model's JSON into typed values. Immutable and shared
+ * across requests via {@link FieldSchemaCache}.
+ */
+public final class CompiledFieldSchema {
+
+    // Rough token costs used to bound numeric-only output: JSON punctuation, a number, and a key
+    private static final int OBJECT_OVERHEAD_TOKENS = 8;
+    private static final int NUMBER_VALUE_TOKENS = 12;
+    private static final int CHARS_PER_TOKEN = 3;
+
+    private record Coercion(String name, boolean numeric) {}
+
+    private final Map<String, Object> responseSchema;
+    private final List<Coercion> plan;
+    private final Map<String, Coercion> byName;
+    private final int maxOutputTokens;
+
+    CompiledFieldSchema(List<FieldDefinition> fields, int tokenCap) {
+        Map<String, Coercion> coercions = new LinkedHashMap<>();
+        for (FieldDefinition field : fields) {
+            coercions.putIfAbsent(field.getName(), new Coercion(field.getName(), "number".equals(field.getType())));
+        }
+        this.byName = Collections.unmodifiableMap(coercions);
+        this.plan = List.copyOf(coercions.values());
+
+        Map<String, Object> properties = new LinkedHashMap<>();
+        int tokens = OBJECT_OVERHEAD_TOKENS;
+        boolean hasString = false;
+        for (Coercion coercion : plan) {
+            properties.put(coercion.name(), Map.of("type", coercion.numeric() ? "NUMBER" : "STRING"));
+            tokens += coercion.name().length() / CHARS_PER_TOKEN + 2 + NUMBER_VALUE_TOKENS;
+            hasString |= !coercion.numeric();
+        }
+        List<String> names = List.copyOf(coercions.keySet());
+        this.responseSchema = Map.of(
+                "type", "OBJECT",
+                "properties", Collections.unmodifiableMap(properties),
+                "required", names,
+                "propertyOrdering", names);
+        // A string value (a summary, an address block) has no size we can predict, so only numbers get a tight bound
+        this.maxOutputTokens = hasString ? tokenCap : Math.min(tokens, tokenCap);
+    }
+
+    public Map<String, Object> getResponseSchema() {
+        return responseSchema;
+    }
+
+    public int getMaxOutputTokens() {
+        return maxOutputTokens;
+    }
+
+    public boolean hasField(String name) {
+        return byName.containsKey(name);
+    }
+
+    /**
+     * Build the result map with proper types, in field order.
+     */
+    public Map<String, Object> coerce(Map<String, JsonNode> values) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Coercion coercion : plan) {
+            result.put(coercion.name(), coerce(coercion, values.getOrDefault(coercion.name(), MissingNode.getInstance())));
+        }
+        return result;
+    }
+
+    public Object coerce(String name, JsonNode value) {
+        return coerce(byName.get(name), value);
+    }
+
+    private static Object coerce(Coercion coercion, JsonNode value) {
+        if (coercion.numeric()) {
+            if (value.isNumber()) {
+                return value.numberValue();
+            }
+            // The schema makes this rare; keep the old fallback for partial or drifted output
+            try {
+                return Double.parseDouble(value.asText());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return value.asText();
+    }
+}
@@ -0,0 +1,189 @@
+package com.widgera.service;
+
+import com.widgera.config.ImageConfig;
+import com.widgera.dto.UploadIntentRequest;
+import com.widgera.dto.UploadIntentResponse;
+import com.widgera.entity.PendingUpload;
+import com.widgera.entity.User;
+import com.widgera.entity.UserImage;
+import com.widgera.exception.ImageProcessingException;
+import com.widgera.exception.InvalidUploadException;
+import com.widgera.repository.PendingUploadRepository;
+import com.widgera.repository.UserImageRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Browser uploads that go straight to the object store instead of through this backend.
+ * An intent records what the client says it will upload and hands out a presigned PUT to a staging key
+ * that only accepts exactly those bytes; completing it checks the staged object, moves it into the shared
+ * blob store, and creates the {@link UserImage}.
+ * Intents that are never completed are swept together with anything uploaded for them.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DirectUploadService {
+
+    private static final Map<String, String> EXTENSIONS = Map.of(
+            "image/jpeg", ".jpg",
+            "image/png", ".png",
+            "image/gif", ".gif",
+            "image/webp", ".webp");
+
+    private final ObjectStore objectStore;
+    private final S3Service s3Service;
+    private final PendingUploadRepository pendingUploadRepository;
+    private final UserImageRepository userImageRepository;
+    private final ImageConfig imageConfig;
+
+    public UploadIntentResponse createIntent(UploadIntentRequest request, User user) {
+        String contentType = request.getContentType().toLowerCase();
+        String extension = EXTENSIONS.get(contentType);
+        if (extension == null) {
+            throw new InvalidUploadException("Unsupported image type: " + request.getContentType());
+        }
+        if (request.getSize() > imageConfig.getDirectUploadMaxBytes()) {
+            throw new InvalidUploadException("Maximum upload size is "
+                    + imageConfig.getDirectUploadMaxBytes() / (1024 * 1024) + "MB");
+        }
+        String imageHash = request.getSha256().toLowerCase();
+
+        // Same duplicate check as a multipart upload, before any bytes are sent
+        Optional<UserImage> existingImage = userImageRepository.findByUserAndImageHash(user, imageHash);
+        if (existingImage.isPresent()) {
+            log.info("Duplicate image detected for user: {}", user.getUsername());
+            UserImage image = existingImage.get();
+            return UploadIntentResponse.builder()
+                    .duplicate(true)
+                    .imageId(image.getId())
+                    .imageUrl(s3Service.presignedUrl(image.getStorageKey()).url())
+                    .build();
+        }
+
+        Duration ttl = Duration.ofSeconds(imageConfig.getDirectUploadUrlTtlSeconds());
+        PendingUpload pending = pendingUploadRepository.save(PendingUpload.builder()
+                .user(user)
+                .storageKey(String.format("uploads/%d/%s%s", user.getId(), UUID.randomUUID(), extension))
+                .imageHash(imageHash)
+                .fileSize(request.getSize())
+                .contentType(contentType)
+                .originalFilename(request.getFilename())
+                .completeBy(LocalDateTime.now().plusSeconds(imageConfig.getDirectUploadCompleteWithinSeconds()))
+                .build());
+        ObjectStore.PresignedPut put = objectStore.presignPut(pending.getStorageKey(), contentType,
+                request.getSize(), imageHash, ttl);
+
+        log.info("Upload intent {} for user: {}, key: {}", pending.getId(), user.getUsername(), pending.getStorageKey());
+        return UploadIntentResponse.builder()
+                .uploadId(pending.getId())
+                .uploadUrl(put.url())
+                .method("PUT")
+                .headers(put.headers())
+                .expiresInSeconds((int) ttl.getSeconds())
+                .build();
+    }
+
+    /**
+     * Verify the uploaded object against the intent and register it as the user's image.
+     * Empty if there is no such pending upload for the user.
+     */
+    public Optional<S3Service.UploadResult> complete(Long uploadId, User user) {
+        Optional<PendingUpload> found = pendingUploadRepository.findByIdAndUser(uploadId, user);
+        if (found.isEmpty()) {
+            return Optional.empty();
+        }
+        PendingUpload pending = found.get();
+        if (LocalDateTime.now().isAfter(pending.getCompleteBy())) {
+            throw new InvalidUploadException("Upload has expired, request a new upload URL");
+        }
+
+        ObjectStore.ObjectMetadata metadata;
+        String detectedType;
+        try {
+            Optional<ObjectStore.ObjectMetadata> head = objectStore.head(pending.getStorageKey());
+            if (head.isEmpty()) {
+                // Still pending: the client may not have finished the PUT yet
+                throw new InvalidUploadException("No uploaded file found, PUT the file before completing");
+            }
+            metadata = head.get();
+            detectedType = metadata.size() > 0
+                    ? ImagePreprocessor.detectContentType(objectStore.readRange(pending.getStorageKey(), 0, 16))
+                    : null;
+        } catch (IOException e) {
+            log.error("Failed to check upload {}", uploadId, e);
+            throw new ImageProcessingException("Failed to verify upload", e);
+        }
+
+        // The signed PUT should make a mismatch impossible, but the row is only created from verified bytes
+        String problem = null;
+        if (metadata.size() != pending.getFileSize()) {
+            problem = "Uploaded size does not match the declared size";
+        } else if (metadata.sha256Hex() == null || !metadata.sha256Hex().equalsIgnoreCase(pending.getImageHash())) {
+            problem = "Uploaded file does not match the declared SHA-256";
+        } else if (!pending.getContentType().equals(detectedType)) {
+            // Trust the bytes, not the client's Content-Type
+            problem = "Uploaded file is not a " + pending.getContentType() + " image";
+        }
+
+        // Completion and the sweeper race for the row; only the winner acts on the object
+        if (pendingUploadRepository.claim(pending.getId()) == 0) {
+            return Optional.empty();
+        }
+        if (problem != null) {
+            s3Service.deleteQuietly(pending.getStorageKey());
+            throw new InvalidUploadException(problem);
+        }
+
+        // The LLM variant is built lazily on first use, so completing never pulls the image back through here
+        UserImage userImage = UserImage.builder()
+                .user(user)
+                .imageHash(pending.getImageHash())
+                .originalFilename(pending.getOriginalFilename())
+                .contentType(detectedType)
+                .fileSize(metadata.size())
+                .build();
+        try {
+            // Even when the content is already stored, the upload proves the user has the bytes, not just the hash
+            return Optional.of(s3Service.register(userImage,
+                    blobKey -> objectStore.copy(pending.getStorageKey(), blobKey), null));
+        } finally {
+            s3Service.deleteQuietly(pending.getStorageKey());
+        }
+    }
+
+    /**
+     * Delete intents that were never completed, and whatever was uploaded for them.
+     */
+    @Scheduled(fixedDelayString = "${image.direct-upload.sweep-interval-ms:300000}")
+    public void sweepAbandoned() {
+        List<PendingUpload> expired;
+        try {
+            expired = pendingUploadRepository.findTop100ByCompleteByBeforeOrderByCompleteBy(LocalDateTime.now());
+        } catch (Exception e) {
+            log.warn("Failed to list abandoned uploads: {}", e.getMessage());
+            return;
+        }
+
+        int swept = 0;
+        for (PendingUpload pending : expired) {
+            if (pendingUploadRepository.claim(pending.getId()) == 1) {
+                s3Service.deleteQuietly(pending.getStorageKey());
+                swept++;
+            }
+        }
+        if (swept > 0) {
+            log.info("Swept {} abandoned uploads", swept);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.widgera.service;
+
+import com.widgera.config.GeminiConfig;
+import com.widgera.dto.FieldDefinition;
+import com.widgera.util.HashUtils;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU of compiled schemas keyed by field-set hash. Clients tend to reuse a handful of
+ * field sets, so the schema and coercion plan are built once rather than on every request.
+ */
+@Service
+public class FieldSchemaCache {
+
+    private final GeminiConfig geminiConfig;
+    private final Map<String, CompiledFieldSchema> cache;
+
+    public FieldSchemaCache(GeminiConfig geminiConfig) {
+        this.geminiConfig = geminiConfig;
+        int maxEntries = geminiConfig.getSchemaCacheSize();
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledFieldSchema> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public CompiledFieldSchema forFields(List<FieldDefinition> fields) {
+        String key = HashUtils.fieldSetHash(fields);
+        synchronized (cache) {
+            CompiledFieldSchema schema = cache.get(key);
+            if (schema != null) {
+                return schema;
+            }
+        }
+        // Compile outside the lock; a concurrent duplicate compile is harmless
+        CompiledFieldSchema compiled = new CompiledFieldSchema(fields, geminiConfig.getSchemaMaxOutputTokens());
+        synchronized (cache) {
+            CompiledFieldSchema existing = cache.putIfAbsent(key, compiled);
+            return existing != null ? existing : compiled;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.widgera.config.PromptConfig;
+import com.widgera.dto.FieldDefinition;
+import com.widgera.entity.FieldSchema;
+import com.widgera.repository.FieldSchemaRepository;
+import com.widgera.util.HashUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns field lists in the field_schema table, so history rows carry a schema id instead of
+ * their own JSON copy. Both directions are cached per process in bounded LRUs: users reuse a
+ * handful of layouts, so writes almost never touch the table and reads almost never parse JSON.
+ */
+@Service
+@Slf4j
+public class FieldSchemaRegistry {
+
+    // The no-op update makes RETURNING yield the existing id on conflict, in one round-trip
+    private static final String INTERN_SQL = """
+            INSERT INTO field_schema (hash, fields, created_at)
+            VALUES (?, CAST(? AS jsonb), ?)
+            ON CONFLICT (hash) DO UPDATE SET hash = EXCLUDED.hash
+            RETURNING id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FieldSchemaRepository fieldSchemaRepository;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Long> idsByHash;
+    private final Map<Long, List<FieldDefinition>> fieldsById;
+
+    public FieldSchemaRegistry(JdbcTemplate jdbcTemplate,
+                               FieldSchemaRepository fieldSchemaRepository,
+                               ObjectMapper objectMapper,
+                               PromptConfig promptConfig) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.fieldSchemaRepository = fieldSchemaRepository;
+        this.objectMapper = objectMapper;
+        this.idsByHash = lru(promptConfig.getHistorySchemaCacheSize());
+        this.fieldsById = lru(promptConfig.getHistorySchemaCacheSize());
+    }
+
+    /**
+     * Id of the stored copy of {@code fields}, creating it on first use.
+     */
+    public Long idFor(List<FieldDefinition> fields) {
+        String hash = HashUtils.fieldSetHash(fields);
+        synchronized (idsByHash) {
+            Long id = idsByHash.get(hash);
+            if (id != null) {
+                return id;
+            }
+        }
+
+        List<FieldDefinition> copy = List.copyOf(fields);
+        Long id;
+        try {
+            id = jdbcTemplate.queryForObject(INTERN_SQL, Long.class,
+                    hash, objectMapper.writeValueAsString(copy), Timestamp.valueOf(LocalDateTime.now()));
+        } catch (JsonProcessingException e) {
+            log.error("Failed to serialize field schema", e);
+            throw new RuntimeException("Failed to save field schema", e);
+        }
+        synchronized (idsByHash) {
+            idsByHash.put(hash, id);
+        }
+        synchronized (fieldsById) {
+            fieldsById.putIfAbsent(id, copy);
+        }
+        return id;
+    }
+
+    /**
+     * The field list stored under {@code id}. Shared and unmodifiable.
+     */
+    public List<FieldDefinition> fieldsFor(Long id) {
+        synchronized (fieldsById) {
+            List<FieldDefinition> fields = fieldsById.get(id);
+            if (fields != null) {
+                return fields;
+            }
+        }
+
+        // Load outside the lock; a concurrent duplicate load is harmless
+        FieldSchema schema = fieldSchemaRepository.findById(id)
+                .orElseThrow(() -> new IllegalStateException("Field schema not found: " + id));
+        List<FieldDefinition> fields;
+        try {
+            fields = List.copyOf(objectMapper.readValue(schema.getFields(), new TypeReference<List<FieldDefinition>>() {
+            }));
+        } catch (JsonProcessingException e) {
+            log.error("Failed to deserialize field schema {}", id, e);
+            throw new RuntimeException("Failed to read field schema", e);
+        }
+        synchronized (fieldsById) {
+            List<FieldDefinition> existing = fieldsById.putIfAbsent(id, fields);
+            return existing != null ? existing : fields;
+        }
+    }
+
+    private static <K, V> Map<K, V> lru(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+}
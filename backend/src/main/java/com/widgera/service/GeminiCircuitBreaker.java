@@ -0,0 +1,121 @@
+package com.widgera.service;
+
+import com.widgera.config.GeminiResilienceConfig;
+import com.widgera.exception.LlmException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * Count-based circuit breaker for Gemini calls.
+ * Tracks the last N call outcomes and opens when either the failure rate or the slow-call rate
+ * crosses its threshold. While open, calls fail immediately instead of waiting out the socket
+ * timeout; after the open period a few trial calls decide whether to close again.
+ */
+@Service
+@Slf4j
+public class GeminiCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final GeminiResilienceConfig config;
+    private final Counter notPermitted;
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private State state = State.CLOSED;
+    private int next;
+    private int recorded;
+    private long openedAtNanos;
+    private int halfOpenPermitted;
+
+    public GeminiCircuitBreaker(GeminiResilienceConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.failed = new boolean[Math.max(1, config.getCircuitBreakerWindowSize())];
+        this.slow = new boolean[failed.length];
+        this.notPermitted = Counter.builder("widgera.llm.circuit.rejections")
+                .description("Gemini calls rejected while the circuit breaker was open")
+                .register(meterRegistry);
+        Gauge.builder("widgera.llm.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .description("Gemini circuit breaker state (0 closed, 1 open, 2 half-open)")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reserve a call. Every successful acquire must be followed by exactly one
+     * {@link #record} or {@link #release}.
+     *
+     * @throws LlmException if the circuit is open
+     */
+    public synchronized void acquirePermission() {
+        if (!config.isCircuitBreakerEnabled()) {
+            return;
+        }
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= config.getCircuitBreakerOpenDurationMs() * 1_000_000) {
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.OPEN
+                || (state == State.HALF_OPEN && halfOpenPermitted >= config.getCircuitBreakerHalfOpenCalls())) {
+            notPermitted.increment();
+            throw new LlmException("Gemini is unavailable, please retry shortly");
+        }
+        if (state == State.HALF_OPEN) {
+            halfOpenPermitted++;
+        }
+    }
+
+    /**
+     * Give back a permission without an outcome, e.g. for a hedged call that lost the race.
+     */
+    public synchronized void release() {
+        if (config.isCircuitBreakerEnabled() && state == State.HALF_OPEN && halfOpenPermitted > 0) {
+            halfOpenPermitted--;
+        }
+    }
+
+    public synchronized void record(boolean success, long durationMs) {
+        if (!config.isCircuitBreakerEnabled() || state == State.OPEN) {
+            return;
+        }
+        failed[next] = !success;
+        slow[next] = durationMs >= config.getCircuitBreakerSlowCallDurationMs();
+        next = (next + 1) % failed.length;
+        recorded = Math.min(recorded + 1, failed.length);
+
+        if (state == State.HALF_OPEN) {
+            if (recorded >= config.getCircuitBreakerHalfOpenCalls()) {
+                transitionTo(thresholdExceeded() ? State.OPEN : State.CLOSED);
+            }
+        } else if (recorded >= config.getCircuitBreakerMinimumCalls() && thresholdExceeded()) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private boolean thresholdExceeded() {
+        int failures = 0;
+        int slowCalls = 0;
+        for (int i = 0; i < recorded; i++) {
+            int slot = Math.floorMod(next - 1 - i, failed.length);
+            failures += failed[slot] ? 1 : 0;
+            slowCalls += slow[slot] ? 1 : 0;
+        }
+        return failures >= recorded * config.getCircuitBreakerFailureRateThreshold()
+                || slowCalls >= recorded * config.getCircuitBreakerSlowCallRateThreshold();
+    }
+
+    private void transitionTo(State newState) {
+        log.warn("Gemini circuit breaker {} -> {}", state, newState);
+        state = newState;
+        // Each state judges only its own calls
+        recorded = 0;
+        halfOpenPermitted = 0;
+        if (newState == State.OPEN) {
+            openedAtNanos = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.widgera.config.GeminiConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gemini Files API references keyed by image content hash, kept in Redis so every node reuses
+ * one upload per image until shortly before it expires. Any failure here falls back to
+ * sending the image inline.
+ */
+@Service
+@Slf4j
+public class GeminiFileCache {
+
+    private static final String KEY_PREFIX = "gemini-file:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final GeminiConfig geminiConfig;
+    private final GeminiFileUploader uploader;
+    private final Map<String, CompletableFuture<Optional<GeminiFileReference>>> uploadsInFlight = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter uploads;
+
+    public GeminiFileCache(StringRedisTemplate redisTemplate,
+                           ObjectMapper objectMapper,
+                           GeminiConfig geminiConfig,
+                           GeminiFileUploader uploader,
+                           MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.geminiConfig = geminiConfig;
+        this.uploader = uploader;
+        this.hits = Counter.builder("widgera.llm.files.requests")
+                .tag("result", "hit")
+                .description("Image reference lookups for Gemini file uploads")
+                .register(meterRegistry);
+        this.uploads = Counter.builder("widgera.llm.files.requests")
+                .tag("result", "upload")
+                .description("Image reference lookups for Gemini file uploads")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A usable file reference for the image, uploading it if needed.
+     *
+     * @return empty if references are disabled or unavailable; send the image inline then
+     */
+    public Optional<GeminiFileReference> resolve(ImageSource image) {
+        if (!geminiConfig.isFilesEnabled() || image == null || image.getContentHash() == null) {
+            return Optional.empty();
+        }
+        String key = KEY_PREFIX + image.getContentHash();
+
+        GeminiFileReference cached;
+        try {
+            String json = redisTemplate.opsForValue().get(key);
+            cached = json != null ? objectMapper.readValue(json, GeminiFileReference.class) : null;
+        } catch (Exception e) {
+            log.warn("File reference cache unavailable, sending image inline: {}", e.getMessage());
+            return Optional.empty();
+        }
+        if (cached != null && isFresh(cached)) {
+            hits.increment();
+            return Optional.of(cached);
+        }
+        return uploadOnce(image, key);
+    }
+
+    /**
+     * Drop a reference Gemini rejected (deleted early, or expired), so the next resolve re-uploads.
+     */
+    public void invalidate(ImageSource image, GeminiFileReference stale) {
+        if (image.getContentHash() == null) {
+            return;
+        }
+        String key = KEY_PREFIX + image.getContentHash();
+        try {
+            String json = redisTemplate.opsForValue().get(key);
+            // Leave it alone if another request already replaced it
+            if (json != null && objectMapper.readValue(json, GeminiFileReference.class).uri().equals(stale.uri())) {
+                redisTemplate.delete(key);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to invalidate file reference {}: {}", key, e.getMessage());
+        }
+    }
+
+    private Optional<GeminiFileReference> uploadOnce(ImageSource image, String key) {
+        // Concurrent prompts on the same image share one upload
+        CompletableFuture<Optional<GeminiFileReference>> mine = new CompletableFuture<>();
+        CompletableFuture<Optional<GeminiFileReference>> existing = uploadsInFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            return existing.join();
+        }
+
+        try {
+            uploads.increment();
+            GeminiFileReference reference = uploader.upload(image);
+            // Expire the entry early enough that a cached reference is always still valid at Gemini
+            Duration ttl = Duration.between(Instant.now(), reference.expiresAt())
+                    .minusSeconds(geminiConfig.getFilesRefreshMarginSeconds());
+            if (!ttl.isNegative() && !ttl.isZero()) {
+                redisTemplate.opsForValue().set(key, objectMapper.writeValueAsString(reference), ttl);
+            }
+            mine.complete(Optional.of(reference));
+        } catch (Exception e) {
+            log.warn("Failed to upload image {} to Gemini, sending inline: {}", image.getContentHash(), e.getMessage());
+            mine.complete(Optional.empty());
+        } finally {
+            uploadsInFlight.remove(key, mine);
+        }
+        return mine.join();
+    }
+
+    private boolean isFresh(GeminiFileReference reference) {
+        return reference.expiresAt() != null && reference.expiresAt()
+                .isAfter(Instant.now().plusSeconds(geminiConfig.getFilesRefreshMarginSeconds()));
+    }
+}
@@ -0,0 +1,9 @@
+package com.widgera.service;
+
+import java.time.Instant;
+
+/**
+ * A file uploaded to the Gemini Files API, referenced from prompts as fileData.
+ */
+public record GeminiFileReference(String uri, String mimeType, Instant expiresAt) {
+}
@@ -0,0 +1,12 @@
+package com.widgera.service;
+
+import java.io.IOException;
+
+/**
+ * Uploads image content so prompts can reference it instead of inlining it.
+ * Selected with {@code gemini.files.uploader}: {@code api} (default) or {@code in-memory}.
+ */
+public interface GeminiFileUploader {
+
+    GeminiFileReference upload(ImageSource image) throws IOException;
+}
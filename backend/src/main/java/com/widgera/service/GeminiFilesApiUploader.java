@@ -0,0 +1,125 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.widgera.config.GeminiConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Resumable upload to the Gemini Files API: a start request returns an upload URL, and the
+ * content is streamed to it in a single upload-and-finalize request.
+ */
+@Service
+@ConditionalOnProperty(name = "gemini.files.uploader", havingValue = "api", matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class GeminiFilesApiUploader implements GeminiFileUploader {
+
+    // Files API keeps uploads for 48 hours; used if the response omits expirationTime
+    private static final Duration DEFAULT_FILE_TTL = Duration.ofHours(48);
+    private static final int MAX_STATE_POLLS = 10;
+    private static final long STATE_POLL_INTERVAL_MS = 500;
+
+    private final GeminiConfig geminiConfig;
+    private final ObjectMapper objectMapper;
+    private final HttpClient geminiHttpClient;
+
+    @Override
+    public GeminiFileReference upload(ImageSource image) throws IOException {
+        long size = image.getSize();
+        if (size < 0) {
+            throw new IOException("Resumable upload needs the content length");
+        }
+
+        try {
+            HttpRequest start = HttpRequest.newBuilder(URI.create(geminiConfig.getFilesUploadUrl()))
+                    .timeout(Duration.ofMillis(geminiConfig.getReadTimeoutMs()))
+                    .header("x-goog-api-key", geminiConfig.getApiKey())
+                    .header("X-Goog-Upload-Protocol", "resumable")
+                    .header("X-Goog-Upload-Command", "start")
+                    .header("X-Goog-Upload-Header-Content-Length", String.valueOf(size))
+                    .header("X-Goog-Upload-Header-Content-Type", image.getContentType())
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(
+                            Map.of("file", Map.of("display_name", String.valueOf(image.getContentHash()))))))
+                    .build();
+            HttpResponse<Void> started = geminiHttpClient.send(start, HttpResponse.BodyHandlers.discarding());
+            if (started.statusCode() / 100 != 2) {
+                throw new IOException("Files API start returned status " + started.statusCode());
+            }
+            String uploadUrl = started.headers().firstValue("x-goog-upload-url")
+                    .orElseThrow(() -> new IOException("Files API returned no upload URL"));
+
+            HttpRequest.BodyPublisher content = HttpRequest.BodyPublishers.fromPublisher(
+                    HttpRequest.BodyPublishers.ofInputStream(() -> {
+                        try {
+                            return image.open();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }), size);
+            HttpRequest upload = HttpRequest.newBuilder(URI.create(uploadUrl))
+                    .timeout(Duration.ofMillis(geminiConfig.getTotalTimeoutMs()))
+                    .header("X-Goog-Upload-Offset", "0")
+                    .header("X-Goog-Upload-Command", "upload, finalize")
+                    .POST(content)
+                    .build();
+            HttpResponse<byte[]> uploaded = geminiHttpClient.send(upload, HttpResponse.BodyHandlers.ofByteArray());
+            if (uploaded.statusCode() / 100 != 2) {
+                throw new IOException("Files API upload returned status " + uploaded.statusCode());
+            }
+
+            JsonNode file = awaitActive(objectMapper.readTree(uploaded.body()).path("file"));
+            String expiration = file.path("expirationTime").asText(null);
+            GeminiFileReference reference = new GeminiFileReference(
+                    file.path("uri").asText(),
+                    file.path("mimeType").asText(image.getContentType()),
+                    expiration != null ? Instant.parse(expiration) : Instant.now().plus(DEFAULT_FILE_TTL));
+            log.info("Uploaded image {} to Gemini Files API as {}", image.getContentHash(), reference.uri());
+            return reference;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while uploading to Files API", e);
+        }
+    }
+
+    /**
+     * Images are normally ACTIVE straight away; anything still PROCESSING is polled briefly.
+     */
+    private JsonNode awaitActive(JsonNode file) throws IOException, InterruptedException {
+        for (int poll = 0; "PROCESSING".equals(file.path("state").asText()); poll++) {
+            if (poll == MAX_STATE_POLLS) {
+                throw new IOException("File " + file.path("name").asText() + " did not become active");
+            }
+            Thread.sleep(STATE_POLL_INTERVAL_MS);
+            HttpRequest get = HttpRequest.newBuilder(
+                            URI.create(geminiConfig.getBaseUrl() + "/" + file.path("name").asText()))
+                    .timeout(Duration.ofMillis(geminiConfig.getReadTimeoutMs()))
+                    .header("x-goog-api-key", geminiConfig.getApiKey())
+                    .GET()
+                    .build();
+            HttpResponse<byte[]> response = geminiHttpClient.send(get, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() / 100 != 2) {
+                throw new IOException("Files API get returned status " + response.statusCode());
+            }
+            file = objectMapper.readTree(response.body());
+        }
+        if ("FAILED".equals(file.path("state").asText()) || file.path("uri").asText().isEmpty()) {
+            throw new IOException("Files API did not accept " + file.path("name").asText());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,94 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Pulls the first candidate's text and finish reason out of a GenerateContentResponse with a
+ * streaming parser, skipping everything else without building a tree.
+ */
+final class GeminiResponseReader {
+
+    record Candidate(String text, String finishReason) {}
+
+    private GeminiResponseReader() {
+    }
+
+    /**
+     * @return the first candidate, or null if the response has none
+     */
+    static Candidate read(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        Candidate candidate = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("candidates".equals(name) && value == JsonToken.START_ARRAY) {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_OBJECT) {
+                    candidate = readCandidate(parser);
+                    token = parser.nextToken();
+                }
+                while (token != JsonToken.END_ARRAY) {
+                    parser.skipChildren();
+                    token = parser.nextToken();
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return candidate;
+    }
+
+    private static Candidate readCandidate(JsonParser parser) throws IOException {
+        StringBuilder text = new StringBuilder();
+        String finishReason = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("content".equals(name) && value == JsonToken.START_OBJECT) {
+                readContent(parser, text);
+            } else if ("finishReason".equals(name) && value == JsonToken.VALUE_STRING) {
+                finishReason = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new Candidate(text.toString(), finishReason);
+    }
+
+    private static void readContent(JsonParser parser, StringBuilder text) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("parts".equals(name) && value == JsonToken.START_ARRAY) {
+                // Text may be split across parts; concatenate them in order
+                for (JsonToken part = parser.nextToken(); part != JsonToken.END_ARRAY; part = parser.nextToken()) {
+                    if (part == JsonToken.START_OBJECT) {
+                        readPart(parser, text);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void readPart(JsonParser parser, StringBuilder text) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("text".equals(name) && value == JsonToken.VALUE_STRING) {
+                text.append(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
@@ -1,18 +1,45 @@
 package com.widgera.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.widgera.config.GeminiConfig;
+import com.widgera.config.GeminiResilienceConfig;
 import com.widgera.dto.FieldDefinition;
+import com.widgera.exception.GeminiApiException;
 import com.widgera.exception.LlmException;
+import com.widgera.exception.RateLimitExceededException;
+import com.widgera.util.Base64EncodingInputStream;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -21,135 +48,545 @@ public class GeminiService {
 
     private final GeminiConfig geminiConfig;
     private final ObjectMapper objectMapper;
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final HttpClient geminiHttpClient;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final GeminiResilienceConfig resilienceConfig;
+    private final GeminiCircuitBreaker circuitBreaker;
+    private final RetryBudget retryBudget;
+    private final LatencyTracker latencyTracker;
+    private final FieldSchemaCache fieldSchemaCache;
+    private final GeminiFileCache fileCache;
 
-    private static final String GEMINI_API_URL = "https://generativelanguage.googleapis.com/v1beta/models/%s:generateContent?key=%s";
+    public Map<String, Object> generateStructuredOutput(String prompt, List<FieldDefinition> fields, ImageSource image) {
+        try {
+            return generateStructuredOutputAsync(prompt, fields, image).join();
+        } catch (CompletionException e) {
+            throw translate(e);
+        }
+    }
 
-    public Map<String, Object> generateStructuredOutput(String prompt, List<FieldDefinition> fields, byte[] imageBytes) {
+    /**
+     * Non-blocking variant: the returned future completes on the HTTP client's virtual-thread
+     * executor, so callers can keep many slow LLM calls outstanding without holding threads.
+     * Transient failures are retried with jittered backoff within the retry budget, and a slow
+     * call may be hedged with a second identical one; the first success wins.
+     * Fails with {@link RateLimitExceededException} if the node is at its Gemini concurrency limit.
+     */
+    public CompletableFuture<Map<String, Object>> generateStructuredOutputAsync(String prompt,
+                                                                               List<FieldDefinition> fields,
+                                                                               ImageSource image) {
         log.info("Generating structured output with {} fields", fields.size());
 
-        try {
-            String url = String.format(GEMINI_API_URL, geminiConfig.getModel(), geminiConfig.getApiKey());
+        CompiledFieldSchema schema = fieldSchemaCache.forFields(fields);
+        GeminiFileReference reference = fileCache.resolve(image).orElse(null);
 
-            // Build the request body
-            Map<String, Object> requestBody = buildRequestBody(prompt, fields, imageBytes);
+        retryBudget.recordRequest();
+        return send(prompt, schema, image, reference)
+                .exceptionallyCompose(ex -> {
+                    if (reference == null || !isStaleReference(translate(ex), reference)) {
+                        return CompletableFuture.failedFuture(ex);
+                    }
+                    // The file was deleted or expired at Gemini before our cached expiry; upload again
+                    log.info("Gemini rejected file reference {}, re-uploading", reference.uri());
+                    fileCache.invalidate(image, reference);
+                    return send(prompt, schema, image, fileCache.resolve(image).orElse(null));
+                })
+                .whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        log.error("Gemini call failed: {}", translate(ex).getMessage());
+                    }
+                });
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
+    private CompletableFuture<Map<String, Object>> send(String prompt,
+                                                        CompiledFieldSchema schema,
+                                                        ImageSource image,
+                                                        GeminiFileReference reference) {
+        HttpRequest request;
+        try {
+            request = newRequest(endpoint("generateContent"), buildRequestBody(prompt, schema, image, reference));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new LlmException("Failed to build Gemini request", e));
+        }
+        return withRetries(request, schema, 1);
+    }
 
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+    private static boolean isStaleReference(RuntimeException failure, GeminiFileReference reference) {
+        return failure instanceof GeminiApiException e
+                && isStaleReference(e.getStatusCode(), e.getErrorBody(), reference);
+    }
 
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
+    private static boolean isStaleReference(int status, String errorBody, GeminiFileReference reference) {
+        if (status == 403 || status == 404) {
+            return true;
+        }
+        // Most 400s are about the prompt, schema or image; only one that names our file says the reference is gone
+        String fileId = reference.uri().substring(reference.uri().lastIndexOf('/') + 1);
+        return status == 400 && errorBody != null && !fileId.isEmpty() && errorBody.contains(fileId);
+    }
 
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                return parseResponse(response.getBody(), fields);
-            } else {
-                throw new LlmException("Failed to get response from Gemini API");
-            }
+    private CompletableFuture<Map<String, Object>> withRetries(HttpRequest request,
+                                                               CompiledFieldSchema schema,
+                                                               int attempt) {
+        return hedged(request, schema)
+                .handle((result, ex) -> {
+                    if (ex == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    RuntimeException failure = translate(ex);
+                    if (!(failure instanceof LlmException llmException) || !llmException.isRetryable()
+                            || attempt >= resilienceConfig.getRetryMaxAttempts() || !retryBudget.tryAcquire()) {
+                        return CompletableFuture.<Map<String, Object>>failedFuture(failure);
+                    }
+                    long backoffMs = backoffMs(attempt);
+                    log.warn("Gemini attempt {} failed ({}), retrying in {}ms", attempt, failure.getMessage(), backoffMs);
+                    return CompletableFuture
+                            .runAsync(() -> {}, CompletableFuture.delayedExecutor(backoffMs, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> withRetries(request, schema, attempt + 1));
+                })
+                .thenCompose(Function.identity());
+    }
 
-        } catch (Exception e) {
-            log.error("Error calling Gemini API", e);
-            throw new LlmException("Failed to generate structured output: " + e.getMessage(), e);
-        }
+    /**
+     * Full jitter: uniform in [0, min(max, base * 2^(attempt-1))], so retrying clients spread out.
+     */
+    private long backoffMs(int attempt) {
+        long ceiling = Math.min(resilienceConfig.getRetryMaxBackoffMs(),
+                resilienceConfig.getRetryBaseBackoffMs() << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
     }
 
-    private Map<String, Object> buildRequestBody(String prompt, List<FieldDefinition> fields, byte[] imageBytes) {
-        // Build JSON schema for structured output
-        StringBuilder schemaDescription = new StringBuilder();
-        schemaDescription.append("You must respond with a valid JSON object containing exactly these fields:\n");
-        for (FieldDefinition field : fields) {
-            schemaDescription.append(String.format("- \"%s\": %s\n", field.getName(),
-                    field.getType().equals("number") ? "a number" : "a string"));
+    /**
+     * Run one call and, if it outlives the recent latency percentile, a second identical one.
+     * Whichever succeeds first wins and the other is cancelled; it fails only if both fail.
+     */
+    private CompletableFuture<Map<String, Object>> hedged(HttpRequest request, CompiledFieldSchema schema) {
+        List<Exchange> exchanges = new CopyOnWriteArrayList<>();
+        CompletableFuture<Map<String, Object>> primary = exchange(request, schema, exchanges);
+
+        OptionalLong hedgeDelayMs = resilienceConfig.isHedgingEnabled()
+                ? latencyTracker.percentile(resilienceConfig.getHedgingPercentile(), resilienceConfig.getHedgingMinSamples())
+                : OptionalLong.empty();
+        if (hedgeDelayMs.isEmpty()) {
+            return primary;
         }
-        schemaDescription.append("\nRespond ONLY with the JSON object, no other text.");
+        long delayMs = Math.max(resilienceConfig.getHedgingMinDelayMs(), hedgeDelayMs.getAsLong());
+
+        CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        BiConsumer<Map<String, Object>, Throwable> onDone = (value, ex) -> {
+            if (ex == null) {
+                if (result.complete(value)) {
+                    exchanges.forEach(Exchange::abandon);
+                }
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(ex);
+            }
+        };
+        primary.whenComplete(onDone);
 
-        String fullPrompt = prompt + "\n\n" + schemaDescription;
+        CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS).execute(() -> {
+            if (result.isDone() || !retryBudget.tryAcquire()) {
+                return;
+            }
+            pending.incrementAndGet();
+            log.debug("Hedging Gemini call still running after {}ms", delayMs);
+            exchange(request, schema, exchanges).whenComplete(onDone);
+        });
+        return result;
+    }
 
-        List<Map<String, Object>> parts = new ArrayList<>();
+    /**
+     * One HTTP round-trip to Gemini. Abandoning it (the hedge partner won) cancels the request
+     * without counting it as a failure against the breaker or the concurrency limit.
+     */
+    private static final class Exchange {
 
-        // Add text part
-        Map<String, Object> textPart = new HashMap<>();
-        textPart.put("text", fullPrompt);
-        parts.add(textPart);
+        private final CompletableFuture<HttpResponse<byte[]>> response;
+        private volatile boolean abandoned;
 
-        // Add image if provided
-        if (imageBytes != null && imageBytes.length > 0) {
-            Map<String, Object> imagePart = new HashMap<>();
-            Map<String, Object> inlineData = new HashMap<>();
-            inlineData.put("mimeType", "image/jpeg");
-            inlineData.put("data", Base64.getEncoder().encodeToString(imageBytes));
-            imagePart.put("inlineData", inlineData);
-            parts.add(imagePart);
+        private Exchange(CompletableFuture<HttpResponse<byte[]>> response) {
+            this.response = response;
         }
 
-        Map<String, Object> content = new HashMap<>();
-        content.put("parts", parts);
+        private void abandon() {
+            if (!response.isDone()) {
+                abandoned = true;
+                response.cancel(true);
+            }
+        }
+    }
 
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("contents", List.of(content));
+    private CompletableFuture<Map<String, Object>> exchange(HttpRequest request,
+                                                            CompiledFieldSchema schema,
+                                                            List<Exchange> exchanges) {
+        AdaptiveConcurrencyLimiter.Permit permit;
+        try {
+            permit = concurrencyLimiter.acquire();
+        } catch (RateLimitExceededException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            circuitBreaker.acquirePermission();
+        } catch (LlmException e) {
+            permit.release(true);
+            return CompletableFuture.failedFuture(e);
+        }
 
-        // Add generation config for JSON output
-        Map<String, Object> generationConfig = new HashMap<>();
-        generationConfig.put("temperature", 0.1);
-        generationConfig.put("topK", 1);
-        generationConfig.put("topP", 1);
-        generationConfig.put("maxOutputTokens", 2048);
-        requestBody.put("generationConfig", generationConfig);
+        long startNanos = System.nanoTime();
+        CompletableFuture<HttpResponse<byte[]>> sent;
+        try {
+            sent = geminiHttpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (RuntimeException e) {
+            // Nothing reached Gemini (e.g. the client is shut down), so give both slots back without an outcome
+            permit.release(true);
+            circuitBreaker.release();
+            return CompletableFuture.failedFuture(new LlmException("Failed to send Gemini request", e));
+        }
+        Exchange exchange = new Exchange(sent);
+        exchanges.add(exchange);
+
+        // Cap the whole exchange, not just the wait for headers; cancelling aborts the HTTP request
+        CompletableFuture.delayedExecutor(geminiConfig.getTotalTimeoutMs(), TimeUnit.MILLISECONDS)
+                .execute(() -> exchange.response.cancel(true));
 
-        return requestBody;
+        return exchange.response
+                .thenApply(response -> {
+                    if (response.statusCode() / 100 != 2 || response.body() == null) {
+                        throw new GeminiApiException(response.statusCode(),
+                                response.body() != null ? new String(response.body(), StandardCharsets.UTF_8) : null);
+                    }
+                    try {
+                        return parseResponse(response.body(), schema);
+                    } catch (IOException e) {
+                        throw new LlmException("Failed to parse Gemini response: " + e.getMessage(), e);
+                    }
+                })
+                .whenComplete((result, ex) -> {
+                    long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                    if (exchange.abandoned) {
+                        permit.release(true);
+                        circuitBreaker.release();
+                        return;
+                    }
+                    // Only upstream trouble counts against Gemini; a bad request or unparseable answer does not
+                    boolean healthy = ex == null || !(translate(ex) instanceof LlmException e && e.isRetryable());
+                    permit.release(healthy);
+                    circuitBreaker.record(healthy, elapsedMs);
+                    if (ex == null) {
+                        latencyTracker.record(elapsedMs);
+                    }
+                });
     }
 
-    private Map<String, Object> parseResponse(String responseBody, List<FieldDefinition> fields) throws JsonProcessingException {
-        JsonNode root = objectMapper.readTree(responseBody);
+    /**
+     * Stream the structured output via streamGenerateContent, invoking {@code onField} as soon as
+     * each field's value is complete. Blocks the calling thread until the stream ends and returns
+     * the full, coerced output.
+     */
+    public Map<String, Object> streamStructuredOutput(String prompt,
+                                                      List<FieldDefinition> fields,
+                                                      ImageSource image,
+                                                      BiConsumer<String, Object> onField) {
+        log.info("Streaming structured output with {} fields", fields.size());
 
-        // Navigate to the text content
-        JsonNode candidates = root.path("candidates");
-        if (candidates.isArray() && !candidates.isEmpty()) {
-            JsonNode content = candidates.get(0).path("content");
-            JsonNode parts = content.path("parts");
-            if (parts.isArray() && !parts.isEmpty()) {
-                String text = parts.get(0).path("text").asText();
+        CompiledFieldSchema schema = fieldSchemaCache.forFields(fields);
+        Map<String, JsonNode> received = new HashMap<>();
+        // Before taking a slot: an upload is not Gemini call latency and must not eat into the stream's deadline
+        GeminiFileReference reference = fileCache.resolve(image).orElse(null);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(geminiConfig.getTotalTimeoutMs());
 
-                text = text.trim();
-                if (text.startsWith("```json")) {
-                    text = text.substring(7);
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.acquire();
+        try {
+            circuitBreaker.acquirePermission();
+        } catch (LlmException e) {
+            permit.release(true);
+            throw e;
+        }
+        long startNanos = System.nanoTime();
+        RuntimeException failure = null;
+        BodyWatchdog watchdog = new BodyWatchdog();
+        // send() returns once the headers are in, so a stalled body would block the read below forever;
+        // closing the body at the deadline fails that read instead
+        CompletableFuture.delayedExecutor(geminiConfig.getTotalTimeoutMs(), TimeUnit.MILLISECONDS)
+                .execute(watchdog::expire);
+        try {
+            HttpResponse<Stream<String>> response = watchdog.watch(sendStreaming(prompt, schema, image, reference));
+            if (reference != null && response.statusCode() / 100 != 2) {
+                String errorBody;
+                try (Stream<String> lines = response.body()) {
+                    errorBody = lines.collect(Collectors.joining("\n"));
                 }
-                if (text.startsWith("```")) {
-                    text = text.substring(3);
+                if (!isStaleReference(response.statusCode(), errorBody, reference)) {
+                    throw new GeminiApiException(response.statusCode(), errorBody);
                 }
-                if (text.endsWith("```")) {
-                    text = text.substring(0, text.length() - 3);
+                // Nothing has been streamed yet, so a rejected file reference can still be replaced
+                log.info("Gemini rejected file reference {}, re-uploading", reference.uri());
+                fileCache.invalidate(image, reference);
+                response = watchdog.watch(sendStreaming(prompt, schema, image, fileCache.resolve(image).orElse(null)));
+            }
+
+            StreamingFieldParser fieldParser = new StreamingFieldParser(objectMapper.getFactory());
+            try (Stream<String> lines = response.body()) {
+                if (response.statusCode() / 100 != 2) {
+                    throw new GeminiApiException(response.statusCode());
                 }
-                text = text.trim();
-
-                // Parse the JSON response
-                JsonNode jsonResponse = objectMapper.readTree(text);
-
-                // Build result map with proper types
-                Map<String, Object> result = new LinkedHashMap<>();
-                for (FieldDefinition field : fields) {
-                    JsonNode value = jsonResponse.path(field.getName());
-                    if (field.getType().equals("number")) {
-                        if (value.isNumber()) {
-                            result.put(field.getName(), value.numberValue());
-                        } else {
-                            // Try to parse as number
-                            try {
-                                result.put(field.getName(), Double.parseDouble(value.asText()));
-                            } catch (NumberFormatException e) {
-                                result.put(field.getName(), 0);
+                Iterator<String> it = lines.iterator();
+                while (it.hasNext() && !fieldParser.isComplete()) {
+                    if (System.nanoTime() > deadline) {
+                        throw timedOut(null);
+                    }
+                    String line = it.next();
+                    // SSE frames look like "data: {...GenerateContentResponse...}"
+                    if (!line.startsWith("data:")) {
+                        continue;
+                    }
+                    GeminiResponseReader.Candidate chunk;
+                    try (JsonParser parser = objectMapper.createParser(line.substring(5).trim())) {
+                        chunk = GeminiResponseReader.read(parser);
+                    }
+                    if (chunk != null) {
+                        for (Map.Entry<String, JsonNode> entry : fieldParser.feed(chunk.text())) {
+                            if (schema.hasField(entry.getKey())
+                                    && received.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                                onField.accept(entry.getKey(), schema.coerce(entry.getKey(), entry.getValue()));
                             }
                         }
-                    } else {
-                        result.put(field.getName(), value.asText());
                     }
                 }
+            }
 
-                log.info("Successfully parsed structured output: {}", result);
-                return result;
+            if (!fieldParser.isComplete() && received.isEmpty()) {
+                throw new LlmException("Could not parse Gemini streaming response");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new LlmException("Gemini stream interrupted", e);
+        } catch (Exception e) {
+            failure = watchdog.expired ? timedOut(e) : translate(e);
+        } finally {
+            watchdog.finish();
+            // Same rule as the unary path: a bad request or unparseable answer does not count against Gemini
+            boolean healthy = failure == null || !(failure instanceof LlmException e && e.isRetryable());
+            permit.release(healthy);
+            circuitBreaker.record(healthy, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+        if (failure != null) {
+            log.error("Gemini stream failed: {}", failure.getMessage());
+            throw failure;
+        }
+
+        Map<String, Object> result = schema.coerce(received);
+        log.info("Successfully streamed structured output: {}", result);
+        return result;
+    }
+
+    private LlmException timedOut(Throwable cause) {
+        return new LlmException("Gemini request timed out after " + geminiConfig.getTotalTimeoutMs() + "ms", cause, true);
+    }
+
+    /**
+     * Closes the body of a streaming response if the call outlives its deadline, which wakes a read blocked on it.
+     */
+    private static final class BodyWatchdog {
+
+        private HttpResponse<Stream<String>> response;
+        private boolean finished;
+        private volatile boolean expired;
+
+        private synchronized HttpResponse<Stream<String>> watch(HttpResponse<Stream<String>> response) {
+            this.response = response;
+            if (expired) {
+                response.body().close();
+            }
+            return response;
+        }
+
+        private synchronized void expire() {
+            if (finished) {
+                return;
+            }
+            expired = true;
+            if (response != null) {
+                response.body().close();
+            }
+        }
+
+        private synchronized void finish() {
+            finished = true;
+            response = null;
+        }
+    }
+
+    private HttpResponse<Stream<String>> sendStreaming(String prompt,
+                                                       CompiledFieldSchema schema,
+                                                       ImageSource image,
+                                                       GeminiFileReference reference)
+            throws IOException, InterruptedException {
+        HttpRequest request = newRequest(endpoint("streamGenerateContent") + "?alt=sse",
+                buildRequestBody(prompt, schema, image, reference));
+        return geminiHttpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+    }
+
+    private HttpRequest newRequest(String url, HttpRequest.BodyPublisher requestBody) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(geminiConfig.getReadTimeoutMs()))
+                .header("Content-Type", "application/json")
+                .header("x-goog-api-key", geminiConfig.getApiKey())
+                .POST(requestBody)
+                .build();
+    }
+
+    private String endpoint(String method) {
+        return String.format("%s/models/%s:%s", geminiConfig.getBaseUrl(), geminiConfig.getModel(), method);
+    }
+
+    /**
+     * Unwrap a future's failure into the exception callers see. Timeouts and I/O errors are
+     * marked retryable; rate-limit rejections pass through unchanged.
+     */
+    private RuntimeException translate(Throwable ex) {
+        Throwable cause = ex;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof LlmException || cause instanceof RateLimitExceededException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof CancellationException) {
+            return new LlmException("Gemini request timed out after " + geminiConfig.getTotalTimeoutMs() + "ms",
+                    cause, true);
+        }
+        if (cause instanceof UncheckedIOException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException) {
+            return new LlmException("Failed to reach Gemini API: " + cause.getMessage(), cause, true);
+        }
+        log.error("Error calling Gemini API", cause);
+        return new LlmException("Failed to generate structured output: " + cause.getMessage(), cause);
+    }
+
+    /**
+     * Write the request JSON around an inline image instead of embedding a Base64 string in it: the
+     * envelope is serialized once, and each send streams the image Base64-encoded between its
+     * two halves, so the image is never held in memory as bytes or as a string.
+     */
+    private HttpRequest.BodyPublisher buildRequestBody(String prompt,
+                                                       CompiledFieldSchema schema,
+                                                       ImageSource image,
+                                                       GeminiFileReference reference) throws IOException {
+        ByteArrayOutputStream envelope = new ByteArrayOutputStream(1024);
+        int imageOffset = -1;
+        try (JsonGenerator gen = objectMapper.createGenerator(envelope)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("contents");
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("parts");
+
+            gen.writeStartObject();
+            gen.writeStringField("text", prompt);
+            gen.writeEndObject();
+
+            if (reference != null) {
+                // Previously uploaded image: send a reference instead of the bytes
+                gen.writeStartObject();
+                gen.writeObjectFieldStart("fileData");
+                gen.writeStringField("mimeType", reference.mimeType());
+                gen.writeStringField("fileUri", reference.uri());
+                gen.writeEndObject();
+                gen.writeEndObject();
+            } else if (image != null) {
+                gen.writeStartObject();
+                gen.writeObjectFieldStart("inlineData");
+                gen.writeStringField("mimeType", image.getContentType());
+                // Open the string, note where the payload goes, then close it
+                gen.writeFieldName("data");
+                gen.writeRawValue("\"");
+                gen.flush();
+                imageOffset = envelope.size();
+                gen.writeRaw('"');
+                gen.writeEndObject();
+                gen.writeEndObject();
+            }
+
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeEndArray();
+            gen.writeObjectField("generationConfig", generationConfig(schema));
+            gen.writeEndObject();
+        }
+
+        byte[] json = envelope.toByteArray();
+        if (imageOffset < 0) {
+            return HttpRequest.BodyPublishers.ofByteArray(json);
+        }
+        int split = imageOffset;
+        // Called once per send, so retries and hedges each read the image afresh
+        return HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                return new SequenceInputStream(Collections.enumeration(List.of(
+                        new ByteArrayInputStream(json, 0, split),
+                        new Base64EncodingInputStream(image.open()),
+                        new ByteArrayInputStream(json, split, json.length - split))));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open image", e);
+            }
+        });
+    }
+
+    private Map<String, Object> generationConfig(CompiledFieldSchema schema) {
+        // Constrain the output to the field schema instead of describing it in the prompt
+        Map<String, Object> generationConfig = new HashMap<>();
+        generationConfig.put("temperature", 0.1);
+        generationConfig.put("topK", 1);
+        generationConfig.put("topP", 1);
+        generationConfig.put("responseMimeType", "application/json");
+        generationConfig.put("responseSchema", schema.getResponseSchema());
+        int thinkingBudget = geminiConfig.getSchemaThinkingBudget();
+        if (thinkingBudget >= 0) {
+            // Thinking tokens are billed against maxOutputTokens, so budget for them explicitly
+            generationConfig.put("thinkingConfig", Map.of("thinkingBudget", thinkingBudget));
+            generationConfig.put("maxOutputTokens", schema.getMaxOutputTokens() + thinkingBudget);
+        } else {
+            generationConfig.put("maxOutputTokens", geminiConfig.getSchemaMaxOutputTokens());
+        }
+        return generationConfig;
+    }
+
+    private Map<String, Object> parseResponse(byte[] responseBody, CompiledFieldSchema schema) throws IOException {
+        GeminiResponseReader.Candidate candidate;
+        try (JsonParser parser = objectMapper.createParser(responseBody)) {
+            candidate = GeminiResponseReader.read(parser);
+        }
+        if (candidate == null || candidate.text().isEmpty()) {
+            throw new LlmException("Could not parse Gemini API response");
+        }
+
+        // responseMimeType guarantees bare JSON; pick out the schema's fields as scalars
+        Map<String, JsonNode> values = new HashMap<>();
+        try (JsonParser parser = objectMapper.createParser(candidate.text())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new LlmException("Gemini response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value.isScalarValue() && schema.hasField(name)) {
+                    values.putIfAbsent(name, parser.readValueAsTree());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            if ("MAX_TOKENS".equals(candidate.finishReason())) {
+                throw new LlmException("Gemini output exceeded the token limit for this field set", e);
             }
+            throw e;
         }
 
-        throw new LlmException("Could not parse Gemini API response");
+        Map<String, Object> result = schema.coerce(values);
+        log.info("Successfully parsed structured output: {}", result);
+        return result;
     }
 }
@@ -0,0 +1,179 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.widgera.dto.HistoryQueryRequest;
+import com.widgera.entity.PromptHistory;
+import com.widgera.entity.User;
+import com.widgera.util.HistoryCursor;
+import com.widgera.util.SearchCursor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filters and searches a user's history inside Postgres, so matching rows are found without
+ * loading the whole history into the JVM. Equality uses jsonb containment and key existence
+ * narrows range filters, both of which the GIN index on response_output can answer. Full-text
+ * search runs against the generated search_vector column and its (user_id, search_vector) GIN index.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class HistoryQueryService {
+
+    private static final String SELECT_SQL =
+            "SELECT id, prompt, image_key, field_schema_id, field_structure::text AS field_structure, " +
+            "response_output::text AS response_output, created_at FROM prompt_history WHERE user_id = ?";
+
+    // Ranks every match, but only the returned page pays for ts_headline
+    private static final String SEARCH_SQL = """
+            WITH q AS (SELECT websearch_to_tsquery('english', ?) AS query),
+            hits AS (
+                SELECT h.id, h.prompt, h.image_key, h.field_schema_id, h.field_structure::text AS field_structure,
+                       h.response_output::text AS response_output, h.created_at,
+                       ts_rank_cd(h.search_vector, q.query) AS rank
+                  FROM prompt_history h, q
+                 WHERE h.user_id = ? AND h.search_vector @@ q.query
+            ),
+            page AS (
+                SELECT * FROM hits %s ORDER BY rank DESC, id DESC LIMIT ?
+            )
+            SELECT page.*,
+                   ts_headline('english',
+                       page.prompt || ' ' || coalesce((SELECT string_agg(value, ' ')
+                                                         FROM jsonb_each_text(page.response_output::jsonb)), ''),
+                       q.query,
+                       'StartSel=<mark>, StopSel=</mark>, MaxFragments=2, FragmentDelimiter=" ... "') AS highlight
+              FROM page, q
+             ORDER BY page.rank DESC, page.id DESC
+            """;
+
+    private static final RowMapper<PromptHistory> ROW_MAPPER = (rs, rowNum) -> PromptHistory.builder()
+            .id(rs.getLong("id"))
+            .prompt(rs.getString("prompt"))
+            .imageKey(rs.getString("image_key"))
+            .fieldSchemaId(rs.getObject("field_schema_id", Long.class))
+            .fieldStructure(rs.getString("field_structure"))
+            .responseOutput(rs.getString("response_output"))
+            .createdAt(rs.getTimestamp("created_at").toLocalDateTime())
+            .build();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * One full-text match.
+     *
+     * @param highlight fragments of the prompt and output with matched terms in {@code <mark>}
+     */
+    public record SearchHit(PromptHistory history, float rank, String highlight) {}
+
+    /**
+     * Rows matching {@code q}, best match first, keyset-paged on (rank, id).
+     *
+     * @param after position of the last hit of the previous page, or null
+     */
+    public List<SearchHit> search(User user, String q, SearchCursor after, int limit) {
+        List<Object> args = new ArrayList<>(List.of(q, user.getId()));
+        String sql;
+        if (after == null) {
+            sql = SEARCH_SQL.formatted("");
+        } else {
+            sql = SEARCH_SQL.formatted("WHERE (rank, id) < (?::real, ?)");
+            args.add(after.rank());
+            args.add(after.id());
+        }
+        args.add(limit);
+
+        log.debug("History search for user {}", user.getId());
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new SearchHit(
+                ROW_MAPPER.mapRow(rs, rowNum),
+                rs.getFloat("rank"),
+                rs.getString("highlight")), args.toArray());
+    }
+
+    /**
+     * Rows matching every condition in {@code query}, newest first, keyset-paged like the plain history.
+     *
+     * @param after position of the last row of the previous page, or null
+     */
+    public List<PromptHistory> find(User user, HistoryQueryRequest query, HistoryCursor after, int limit) {
+        StringBuilder sql = new StringBuilder(SELECT_SQL);
+        List<Object> args = new ArrayList<>();
+        args.add(user.getId());
+
+        if (query.getEq() != null) {
+            appendEquals(sql, args, query.getField(), query.getEq());
+        }
+        if (query.getGt() != null || query.getGte() != null || query.getLt() != null || query.getLte() != null) {
+            // ?? is the jsonb key-exists operator, escaped for JDBC
+            sql.append(" AND response_output ?? ? AND jsonb_typeof(response_output -> ?) = 'number'");
+            args.add(query.getField());
+            args.add(query.getField());
+            appendBound(sql, args, query.getField(), ">", query.getGt());
+            appendBound(sql, args, query.getField(), ">=", query.getGte());
+            appendBound(sql, args, query.getField(), "<", query.getLt());
+            appendBound(sql, args, query.getField(), "<=", query.getLte());
+        }
+        if (after != null) {
+            sql.append(" AND (created_at, id) < (?, ?)");
+            args.add(Timestamp.valueOf(after.createdAt()));
+            args.add(after.id());
+        }
+        sql.append(" ORDER BY created_at DESC, id DESC LIMIT ?");
+        args.add(limit);
+
+        log.debug("History query for user {} on field '{}'", user.getId(), query.getField());
+        return jdbcTemplate.query(sql.toString(), ROW_MAPPER, args.toArray());
+    }
+
+    /**
+     * A numeric-looking value may have been extracted as a number or as a string, so both are matched.
+     */
+    private void appendEquals(StringBuilder sql, List<Object> args, String field, String value) {
+        BigDecimal number = parseNumber(value);
+        if (number == null) {
+            sql.append(" AND response_output @> ?::jsonb");
+            args.add(containment(field, value));
+            return;
+        }
+        sql.append(" AND (response_output @> ?::jsonb OR response_output @> ?::jsonb)");
+        args.add(containment(field, number));
+        args.add(containment(field, value));
+    }
+
+    private void appendBound(StringBuilder sql, List<Object> args, String field, String operator, BigDecimal bound) {
+        if (bound == null) {
+            return;
+        }
+        // jsonb compares numbers numerically; the typeof check above keeps strings out
+        sql.append(" AND (response_output -> ?) ").append(operator).append(" to_jsonb(?::numeric)");
+        args.add(field);
+        args.add(bound);
+    }
+
+    private String containment(String field, Object value) {
+        try {
+            return objectMapper.writeValueAsString(Map.of(field, value));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unserializable query value", e);
+        }
+    }
+
+    private static BigDecimal parseNumber(String value) {
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
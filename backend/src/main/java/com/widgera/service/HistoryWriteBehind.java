@@ -0,0 +1,312 @@
+package com.widgera.service;
+
+import com.widgera.config.PromptConfig;
+import com.widgera.entity.PromptHistory;
+import com.widgera.entity.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Takes history inserts off the prompt response path. Rows get their id from the writer's pool
+ * up front and are queued; a scheduled flusher writes whatever has accumulated as one JDBC batch.
+ * A full queue falls back to a synchronous insert rather than dropping or blocking.
+ * <p>
+ * With {@code prompt.history.write-behind.durable}, each row is also appended to a Redis stream
+ * before the caller gets its id, and removed once committed. Entries still there well past the
+ * flush interval belong to a node that died before flushing; any node replays them idempotently.
+ * <p>
+ * A batch the database rejects is retried row by row, so one bad row (e.g. a NUL character,
+ * which TEXT and jsonb refuse) holds up only itself; it is dropped after
+ * {@code prompt.history.write-behind.max-attempts}.
+ */
+@Service
+@Slf4j
+public class HistoryWriteBehind {
+
+    private static final String STREAM_KEY = "history:write-behind";
+
+    private record Pending(PromptHistory row, RecordId recordId, int attempts) {
+
+        Pending(PromptHistory row, RecordId recordId) {
+            this(row, recordId, 0);
+        }
+
+        Pending failed() {
+            return new Pending(row, recordId, attempts + 1);
+        }
+    }
+
+    private final PromptHistoryWriter writer;
+    private final StringRedisTemplate redisTemplate;
+    private final PromptConfig promptConfig;
+    private final BlockingQueue<Pending> queue;
+    private final Counter synchronousWrites;
+    private final Counter failedFlushes;
+    private final Counter droppedRows;
+
+    public HistoryWriteBehind(PromptHistoryWriter writer,
+                              StringRedisTemplate redisTemplate,
+                              PromptConfig promptConfig,
+                              MeterRegistry meterRegistry) {
+        this.writer = writer;
+        this.redisTemplate = redisTemplate;
+        this.promptConfig = promptConfig;
+        this.queue = new ArrayBlockingQueue<>(promptConfig.getHistoryWriteBehindQueueCapacity());
+        Gauge.builder("widgera.history.write-behind.queued", queue, BlockingQueue::size)
+                .description("History rows waiting to be flushed")
+                .register(meterRegistry);
+        this.synchronousWrites = Counter.builder("widgera.history.write-behind.synchronous")
+                .description("History rows written inline because write-behind was off or its queue was full")
+                .register(meterRegistry);
+        this.failedFlushes = Counter.builder("widgera.history.write-behind.failed-flushes")
+                .description("Flushes that failed and were requeued")
+                .register(meterRegistry);
+        this.droppedRows = Counter.builder("widgera.history.write-behind.dropped")
+                .description("History rows dropped after the database rejected them max-attempts times")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Assign ids to {@code rows} and schedule them for insertion. The ids are final as soon as this returns.
+     */
+    public void save(User user, List<PromptHistory> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        rows.forEach(row -> row.setUser(user));
+        writer.assignIds(rows);
+
+        if (!promptConfig.isHistoryWriteBehindEnabled()) {
+            synchronousWrites.increment(rows.size());
+            writer.insertAll(rows, false);
+            return;
+        }
+
+        List<Pending> overflow = new ArrayList<>();
+        for (PromptHistory row : rows) {
+            Pending pending;
+            try {
+                pending = new Pending(row, promptConfig.isHistoryWriteBehindDurable() ? appendToStream(row) : null);
+            } catch (Exception e) {
+                // Without the durable copy a crash could lose the row, so write it now instead
+                log.warn("Failed to log history row {} to the stream: {}", row.getId(), e.getMessage());
+                overflow.add(new Pending(row, null));
+                continue;
+            }
+            if (!queue.offer(pending)) {
+                overflow.add(pending);
+            }
+        }
+        if (!overflow.isEmpty()) {
+            log.warn("Writing {} history rows inline", overflow.size());
+            synchronousWrites.increment(overflow.size());
+            writer.insertAll(overflow.stream().map(Pending::row).toList(), false);
+            overflow.forEach(this::forget);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${prompt.history.write-behind.flush-interval-ms:100}")
+    public void flush() {
+        int batchSize = promptConfig.getHistoryWriteBehindBatchSize();
+        List<Pending> batch = new ArrayList<>(batchSize);
+        // Rejected rows wait for the next tick rather than being drained again by this one
+        List<Pending> retries = new ArrayList<>();
+        try {
+            while (queue.drainTo(batch, batchSize) > 0) {
+                try {
+                    insert(batch.stream().map(Pending::row).toList());
+                    batch.forEach(this::forget);
+                } catch (Exception e) {
+                    log.warn("Failed to flush {} history rows: {}", batch.size(), e.getMessage());
+                    failedFlushes.increment();
+                    if (isUnavailable(e)) {
+                        // No row is at fault; keep them all and try again on the next tick
+                        requeue(batch);
+                        return;
+                    }
+                    if (!flushOneByOne(batch, retries)) {
+                        return;
+                    }
+                }
+                batch.clear();
+            }
+        } finally {
+            requeue(retries);
+        }
+    }
+
+    /**
+     * Insert each row of a rejected batch on its own, so the rows that are fine get written.
+     *
+     * @return false if the database became unavailable; the rows not yet tried are requeued
+     */
+    private boolean flushOneByOne(List<Pending> batch, List<Pending> retries) {
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            try {
+                insert(List.of(pending.row()));
+                forget(pending);
+            } catch (Exception e) {
+                if (isUnavailable(e)) {
+                    requeue(batch.subList(i, batch.size()));
+                    return false;
+                }
+                Pending failed = pending.failed();
+                if (failed.attempts() < promptConfig.getHistoryWriteBehindMaxAttempts()) {
+                    retries.add(failed);
+                } else {
+                    log.error("Dropping history row {} of user {} after {} attempts: {}",
+                            pending.row().getId(), pending.row().getUser().getId(), failed.attempts(), e.getMessage());
+                    droppedRows.increment();
+                    forget(pending);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void insert(List<PromptHistory> rows) {
+        // A durable row may already have been replayed by another node if our flushes kept failing
+        writer.insertAll(rows, promptConfig.isHistoryWriteBehindDurable());
+    }
+
+    private static boolean isUnavailable(Exception e) {
+        return e instanceof CannotCreateTransactionException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException;
+    }
+
+    /**
+     * Insert rows left in the stream by nodes that died before flushing them.
+     */
+    @Scheduled(fixedDelayString = "${prompt.history.write-behind.replay-interval-ms:60000}")
+    public void replayAbandoned() {
+        if (!promptConfig.isHistoryWriteBehindDurable()) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - promptConfig.getHistoryWriteBehindReplayAfterSeconds() * 1000;
+        try {
+            List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream().range(STREAM_KEY,
+                    Range.closed("-", cutoff + "-0"),
+                    Limit.limit().count(promptConfig.getHistoryWriteBehindBatchSize()));
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+
+            List<PromptHistory> rows = records.stream().map(record -> fromRecord(record.getValue())).toList();
+            int inserted;
+            try {
+                inserted = writer.insertAll(rows, true).size();
+            } catch (Exception e) {
+                if (isUnavailable(e)) {
+                    throw e;
+                }
+                inserted = replayOneByOne(records, rows);
+            }
+            redisTemplate.opsForStream().delete(STREAM_KEY, records.stream().map(MapRecord::getId).toArray(RecordId[]::new));
+            log.info("Replayed {} abandoned history rows ({} not yet written)", records.size(), inserted);
+        } catch (Exception e) {
+            log.warn("Failed to replay abandoned history rows: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Nobody retries an abandoned row later, so one the database rejects is logged and dropped straight away.
+     */
+    private int replayOneByOne(List<MapRecord<String, Object, Object>> records, List<PromptHistory> rows) {
+        int inserted = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            try {
+                inserted += writer.insertAll(List.of(rows.get(i)), true).size();
+            } catch (Exception e) {
+                if (isUnavailable(e)) {
+                    throw e;
+                }
+                log.error("Dropping abandoned history row {} ({}): {}", rows.get(i).getId(), records.get(i).getId(), e.getMessage());
+                droppedRows.increment();
+            }
+        }
+        return inserted;
+    }
+
+    @PreDestroy
+    public void drain() {
+        flush();
+        if (!queue.isEmpty()) {
+            log.warn("Shutting down with {} unflushed history rows", queue.size());
+        }
+    }
+
+    private void requeue(List<Pending> batch) {
+        for (Pending pending : batch) {
+            if (!queue.offer(pending)) {
+                // Durable rows stay in the stream and are replayed; others are lost, so say so
+                log.error("History write-behind queue full on requeue, dropping row {}", pending.row().getId());
+            }
+        }
+    }
+
+    private RecordId appendToStream(PromptHistory row) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("id", String.valueOf(row.getId()));
+        fields.put("userId", String.valueOf(row.getUser().getId()));
+        fields.put("prompt", row.getPrompt());
+        if (row.getImageKey() != null) {
+            fields.put("imageKey", row.getImageKey());
+        }
+        fields.put("fieldSchemaId", String.valueOf(row.getFieldSchemaId()));
+        fields.put("responseOutput", row.getResponseOutput());
+        fields.put("createdAt", row.getCreatedAt().toString());
+        return redisTemplate.opsForStream().add(StreamRecords.newRecord().in(STREAM_KEY).ofMap(fields));
+    }
+
+    private void forget(Pending pending) {
+        if (pending.recordId() == null) {
+            return;
+        }
+        try {
+            redisTemplate.opsForStream().delete(STREAM_KEY, pending.recordId());
+        } catch (Exception e) {
+            // Replay will find the row already written and skip it
+            log.debug("Failed to remove history row {} from the stream: {}", pending.row().getId(), e.getMessage());
+        }
+    }
+
+    private static PromptHistory fromRecord(Map<Object, Object> fields) {
+        return PromptHistory.builder()
+                .id(Long.parseLong((String) fields.get("id")))
+                .user(User.builder().id(Long.parseLong((String) fields.get("userId"))).build())
+                .prompt((String) fields.get("prompt"))
+                .imageKey((String) fields.get("imageKey"))
+                .fieldSchemaId(fields.containsKey("fieldSchemaId") ? Long.parseLong((String) fields.get("fieldSchemaId")) : null)
+                // Entries logged before field_schema carry the list inline
+                .fieldStructure((String) fields.get("fieldStructure"))
+                .responseOutput((String) fields.get("responseOutput"))
+                .createdAt(LocalDateTime.parse((String) fields.get("createdAt")))
+                .build();
+    }
+}
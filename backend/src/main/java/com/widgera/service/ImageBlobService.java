@@ -0,0 +1,198 @@
+package com.widgera.service;
+
+import com.widgera.config.ImageConfig;
+import com.widgera.entity.ImageBlob;
+import com.widgera.exception.ImageProcessingException;
+import com.widgera.repository.ImageBlobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Content-addressed image storage shared across users. Each distinct image is stored once under
+ * {@code blobs/ab/<hash>} and counted by the {@code user_images} rows that use it.
+ * <p>
+ * Reference changes and the collector's decision run in short transactions holding a Postgres
+ * advisory lock on the hash; object writes and deletes never do. An uploader {@link #reserve reserves}
+ * the hash before writing, which keeps the collector off the blob until the reference is committed,
+ * and the collector marks a blob before deleting its objects, so uploaders wait instead of writing
+ * content that is about to disappear.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ImageBlobService {
+
+    private static final String LOCK_SQL = "SELECT pg_advisory_xact_lock(hashtextextended(?, 0))";
+
+    private static final String ADD_REFERENCE_SQL = """
+            INSERT INTO image_blobs (hash, storage_key, content_type, file_size, ref_count, created_at, updated_at)
+            VALUES (?, ?, ?, ?, 1, now(), now())
+            ON CONFLICT (hash) DO UPDATE SET ref_count = GREATEST(image_blobs.ref_count, 0) + 1, updated_at = now()
+            """;
+
+    private static final String REMOVE_REFERENCE_SQL =
+            "UPDATE image_blobs SET ref_count = ref_count - 1, updated_at = now() WHERE hash = ? AND ref_count > 0";
+
+    // Restarts the grace period; also clears a collection mark that has stalled
+    private static final String RESERVE_SQL =
+            "UPDATE image_blobs SET ref_count = GREATEST(ref_count, 0), updated_at = now() WHERE hash = ?";
+
+    private static final String MARK_COLLECTING_SQL =
+            "UPDATE image_blobs SET ref_count = " + ImageBlob.COLLECTING + ", updated_at = now() WHERE hash = ?";
+
+    private static final String UNMARK_COLLECTING_SQL =
+            "UPDATE image_blobs SET ref_count = 0 WHERE hash = ? AND ref_count = " + ImageBlob.COLLECTING;
+
+    private static final String DELETE_COLLECTED_SQL =
+            "DELETE FROM image_blobs WHERE hash = ? AND ref_count = " + ImageBlob.COLLECTING;
+
+    // A collector that held its mark this long has died; the blob is treated as plain unreferenced
+    private static final Duration STALE_COLLECTION = Duration.ofMinutes(1);
+    private static final Duration RESERVE_RETRY_DELAY = Duration.ofMillis(100);
+
+    private final ImageBlobRepository imageBlobRepository;
+    private final ObjectStore objectStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ImageConfig imageConfig;
+
+    public static String blobKey(String hash) {
+        return "blobs/" + hash.substring(0, 2) + "/" + hash;
+    }
+
+    /**
+     * Key of the LLM variant stored next to an object: images/{userId}/{uuid}.llm.jpg, blobs/ab/{hash}.llm.jpg.
+     */
+    public static String variantKey(String key) {
+        int slash = key.lastIndexOf('/');
+        int dot = key.lastIndexOf('.');
+        return (dot > slash ? key.substring(0, dot) : key) + ".llm.jpg";
+    }
+
+    /**
+     * Run {@code work} in a transaction that holds the lock for {@code hash}.
+     */
+    public <T> T locked(String hash, TransactionCallback<T> work) {
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.query(LOCK_SQL, rs -> null, hash);
+            return work.doInTransaction(status);
+        });
+    }
+
+    public Optional<ImageBlob> find(String hash) {
+        return imageBlobRepository.findById(hash);
+    }
+
+    /**
+     * Call before writing the blob's objects, outside any transaction. Restarts the blob's grace period so
+     * the collector leaves it alone until the caller has committed its reference, and waits out a collection
+     * already deleting it. A blob returned with no references may have lost its objects and must be rewritten.
+     *
+     * @return the blob as it was, or empty if the content has never been stored or was collected
+     */
+    public Optional<ImageBlob> reserve(String hash) {
+        long deadline = System.nanoTime() + STALE_COLLECTION.toNanos();
+        while (true) {
+            Optional<ImageBlob> blob = locked(hash, status -> {
+                Optional<ImageBlob> found = find(hash);
+                if (found.isPresent() && found.get().getRefCount() == ImageBlob.COLLECTING
+                        && found.get().getUpdatedAt().isAfter(LocalDateTime.now().minus(STALE_COLLECTION))) {
+                    return null;
+                }
+                jdbcTemplate.update(RESERVE_SQL, hash);
+                return found;
+            });
+            if (blob != null) {
+                return blob;
+            }
+            if (System.nanoTime() > deadline) {
+                throw new ImageProcessingException("Image storage is busy, try again");
+            }
+            try {
+                Thread.sleep(RESERVE_RETRY_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ImageProcessingException("Interrupted while storing image", e);
+            }
+        }
+    }
+
+    /**
+     * Count one more user of the content, creating the blob row on first use. Call with the lock held.
+     */
+    public void addReference(String hash, String storageKey, String contentType, Long fileSize) {
+        jdbcTemplate.update(ADD_REFERENCE_SQL, hash, storageKey, contentType, fileSize);
+    }
+
+    /**
+     * Count one fewer user of the content. At zero the blob is left for the collector, so an image
+     * deleted and re-uploaded soon after is still there. Call with the lock held.
+     */
+    public void removeReference(String hash) {
+        jdbcTemplate.update(REMOVE_REFERENCE_SQL, hash);
+    }
+
+    /**
+     * Delete blobs that have had no references for the grace period, along with their LLM variants.
+     */
+    @Scheduled(fixedDelayString = "${image.blobs.gc-interval-ms:3600000}")
+    public void collectGarbage() {
+        LocalDateTime cutoff = LocalDateTime.now().minusSeconds(imageConfig.getBlobsGcGraceSeconds());
+        List<ImageBlob> candidates;
+        try {
+            // Includes collections that died after marking their blob
+            candidates = imageBlobRepository.findTop100ByRefCountLessThanEqualAndUpdatedAtBeforeOrderByUpdatedAt(0, cutoff);
+        } catch (Exception e) {
+            log.warn("Failed to list unreferenced image blobs: {}", e.getMessage());
+            return;
+        }
+
+        int collected = 0;
+        for (ImageBlob candidate : candidates) {
+            String hash = candidate.getHash();
+            try {
+                String storageKey = locked(hash, status -> {
+                    // Re-check under the lock: an upload may have reserved or referenced it since the listing
+                    ImageBlob blob = imageBlobRepository.findById(hash).orElse(null);
+                    if (blob == null || blob.getRefCount() > 0 || blob.getUpdatedAt().isAfter(cutoff)) {
+                        return null;
+                    }
+                    jdbcTemplate.update(MARK_COLLECTING_SQL, hash);
+                    return blob.getStorageKey();
+                });
+                if (storageKey == null) {
+                    continue;
+                }
+
+                // The lock is released by now; the mark keeps uploaders from writing the content meanwhile
+                try {
+                    objectStore.delete(variantKey(storageKey));
+                    objectStore.delete(storageKey);
+                } catch (IOException e) {
+                    // Plain unreferenced again, so a later run retries; uploaders rewrite its objects anyway
+                    jdbcTemplate.update(UNMARK_COLLECTING_SQL, hash);
+                    throw e;
+                }
+                if (jdbcTemplate.update(DELETE_COLLECTED_SQL, hash) == 1) {
+                    collected++;
+                }
+            } catch (Exception e) {
+                log.warn("Failed to collect image blob {}: {}", hash, e.getMessage());
+            }
+        }
+        if (collected > 0) {
+            log.info("Garbage collected {} unreferenced image blobs", collected);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.widgera.service;
+
+import com.widgera.config.ImageConfig;
+import com.widgera.util.ByteBufferInputStream;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Node-local two-tier cache of image bytes keyed by content hash: a heap LRU for hot images and
+ * a directory on local disk for warm ones, each bounded by total bytes. Disk entries are mapped
+ * once and {@link #open} streams straight from the mapping, so a disk hit is served from the page
+ * cache without a heap copy. Content hashes never change meaning, so entries are never invalidated, only evicted.
+ */
+@Service
+@Slf4j
+public class ImageByteCache {
+
+    private final ImageConfig imageConfig;
+    private final Path directory;
+    private final Map<String, byte[]> heap = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, DiskEntry> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<byte[]>> loadsInFlight = new ConcurrentHashMap<>();
+    private long heapBytes;
+    private long diskBytes;
+    private final Counter heapHits;
+    private final Counter diskHits;
+    private final Counter misses;
+
+    public ImageByteCache(ImageConfig imageConfig, MeterRegistry meterRegistry) {
+        this.imageConfig = imageConfig;
+        this.directory = Path.of(imageConfig.getCacheDiskDir());
+        this.heapHits = requests(meterRegistry, "heap");
+        this.diskHits = requests(meterRegistry, "disk");
+        this.misses = requests(meterRegistry, "miss");
+        Gauge.builder("widgera.image.cache.bytes", this, cache -> cache.usedBytes(true))
+                .tag("tier", "heap")
+                .description("Bytes held by the image byte cache")
+                .register(meterRegistry);
+        Gauge.builder("widgera.image.cache.bytes", this, cache -> cache.usedBytes(false))
+                .tag("tier", "disk")
+                .description("Bytes held by the image byte cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A file in the disk tier. Its mapping is made on first read and shared by every reader; once the
+     * entry is evicted, the GC releases the mapping after the last stream reading it is gone.
+     */
+    private static final class DiskEntry {
+
+        private final long size;
+        private MappedByteBuffer mapped;  // guarded by disk
+
+        private DiskEntry(long size) {
+            this.size = size;
+        }
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String tier) {
+        return Counter.builder("widgera.image.cache.requests")
+                .tag("tier", tier)
+                .description("Image byte cache lookups by the tier that served them")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Re-index whatever a previous run left on disk, so a restart keeps the warm tier.
+     */
+    @PostConstruct
+    void loadDiskTier() {
+        if (!imageConfig.isCacheEnabled()) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(directory)) {
+                files = listing.sorted(Comparator.comparing(ImageByteCache::lastModified)).toList();
+            }
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    // A write cut short by the previous run
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                indexDiskEntry(file.getFileName().toString(), Files.size(file));
+            }
+            log.info("Image cache disk tier at {} holds {} entries ({} bytes)", directory, disk.size(), diskBytes);
+        } catch (IOException e) {
+            log.warn("Image cache disk tier unavailable at {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Bytes for {@code hash}, loading them with {@code loader} on a miss. A disk hit is copied onto the heap;
+     * callers that only need to read the content once should use {@link #open} instead.
+     */
+    public byte[] get(String hash, Callable<byte[]> loader) throws Exception {
+        if (!imageConfig.isCacheEnabled() || hash == null) {
+            return loader.call();
+        }
+
+        byte[] bytes = getHeap(hash);
+        if (bytes != null) {
+            heapHits.increment();
+            return bytes;
+        }
+
+        ByteBuffer mapped = mapDisk(hash);
+        if (mapped != null) {
+            diskHits.increment();
+            bytes = new byte[mapped.remaining()];
+            mapped.get(bytes);
+            putHeap(hash, bytes);
+            return bytes;
+        }
+
+        return load(hash, loader);
+    }
+
+    /**
+     * A stream over the content of {@code hash}, loading it with {@code loader} on a miss.
+     * Disk hits read the shared mapping directly and are not promoted to the heap tier.
+     */
+    public InputStream open(String hash, Callable<byte[]> loader) throws Exception {
+        if (!imageConfig.isCacheEnabled() || hash == null) {
+            return new ByteArrayInputStream(loader.call());
+        }
+
+        byte[] bytes = getHeap(hash);
+        if (bytes != null) {
+            heapHits.increment();
+            return new ByteArrayInputStream(bytes);
+        }
+
+        ByteBuffer mapped = mapDisk(hash);
+        if (mapped != null) {
+            diskHits.increment();
+            return new ByteBufferInputStream(mapped);
+        }
+
+        return new ByteArrayInputStream(load(hash, loader));
+    }
+
+    private byte[] load(String hash, Callable<byte[]> loader) throws Exception {
+        misses.increment();
+        // Concurrent misses on the same image share one download
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = loadsInFlight.putIfAbsent(hash, mine);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+
+        try {
+            byte[] bytes = loader.call();
+            if (bytes.length <= imageConfig.getCacheMaxEntryBytes()) {
+                putHeap(hash, bytes);
+                // Keep the disk write off the request path
+                Thread.ofVirtual().start(() -> writeDisk(hash, bytes));
+            }
+            mine.complete(bytes);
+            return bytes;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadsInFlight.remove(hash, mine);
+        }
+    }
+
+    private byte[] getHeap(String hash) {
+        synchronized (heap) {
+            return heap.get(hash);
+        }
+    }
+
+    private void putHeap(String hash, byte[] bytes) {
+        synchronized (heap) {
+            byte[] previous = heap.put(hash, bytes);
+            heapBytes += bytes.length - (previous != null ? previous.length : 0);
+            Iterator<Map.Entry<String, byte[]>> eldest = heap.entrySet().iterator();
+            while (heapBytes > imageConfig.getCacheHeapMaxBytes() && eldest.hasNext()) {
+                heapBytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @return a read-only view of the cached file, positioned at its start, or null if it is not on disk
+     */
+    private ByteBuffer mapDisk(String hash) {
+        DiskEntry entry;
+        synchronized (disk) {
+            entry = disk.get(hash);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.mapped != null) {
+                return entry.mapped.duplicate();
+            }
+        }
+        try (FileChannel channel = FileChannel.open(directory.resolve(hash), StandardOpenOption.READ)) {
+            // The mapping outlives the channel
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            synchronized (disk) {
+                if (entry.mapped == null) {
+                    entry.mapped = mapped;
+                }
+                return entry.mapped.duplicate();
+            }
+        } catch (NoSuchFileException e) {
+            // Evicted between the index check and the read
+            return null;
+        } catch (IOException e) {
+            log.warn("Failed to read cached image {}: {}", hash, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeDisk(String hash, byte[] bytes) {
+        Path temp = null;
+        try {
+            // Write aside and rename, so readers never map a half-written file
+            temp = Files.createTempFile(directory, hash, ".tmp");
+            Files.write(temp, bytes);
+            Files.move(temp, directory.resolve(hash), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+            for (String evicted : indexDiskEntry(hash, bytes.length)) {
+                Files.deleteIfExists(directory.resolve(evicted));
+            }
+        } catch (IOException e) {
+            log.warn("Failed to write cached image {}: {}", hash, e.getMessage());
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    log.warn("Failed to delete {}: {}", temp, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return keys evicted to stay within the disk budget; their files are deleted outside the lock
+     */
+    private List<String> indexDiskEntry(String hash, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (disk) {
+            DiskEntry previous = disk.put(hash, new DiskEntry(size));
+            diskBytes += size - (previous != null ? previous.size : 0);
+            Iterator<Map.Entry<String, DiskEntry>> eldest = disk.entrySet().iterator();
+            while (diskBytes > imageConfig.getCacheDiskMaxBytes() && eldest.hasNext()) {
+                Map.Entry<String, DiskEntry> entry = eldest.next();
+                if (entry.getKey().equals(hash)) {
+                    continue;
+                }
+                diskBytes -= entry.getValue().size;
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        return evicted;
+    }
+
+    private long usedBytes(boolean heapTier) {
+        if (heapTier) {
+            synchronized (heap) {
+                return heapBytes;
+            }
+        }
+        synchronized (disk) {
+            return diskBytes;
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.widgera.service;
+
+import com.widgera.config.ImageConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Builds the image variant sent to the LLM: real MIME type detection, EXIF orientation applied,
+ * longest edge capped and re-encoded as JPEG. Small originals in a format Gemini accepts are
+ * passed through untouched.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ImagePreprocessor {
+
+    // Formats Gemini accepts directly; anything else (GIF, BMP, TIFF) is always converted
+    private static final Set<String> PASSTHROUGH_TYPES = Set.of("image/jpeg", "image/png", "image/webp");
+
+    // Covers the magic bytes and a JPEG's APP1 (EXIF) segment, which is at most 64 KB
+    private static final int HEAD_BYTES = 64 * 1024 + 32;
+
+    private final ImageConfig imageConfig;
+
+    /**
+     * @param contentType detected MIME type of the original, or null if unrecognized
+     * @param variant     re-encoded image, or null if the original should be sent as-is
+     */
+    public record Result(String contentType, Variant variant) {}
+
+    public record Variant(byte[] bytes, String contentType, int width, int height) {}
+
+    public Result process(byte[] original) {
+        byte[] head = original.length <= HEAD_BYTES ? original : Arrays.copyOf(original, HEAD_BYTES);
+        return process(new MemoryCacheImageInputStream(new ByteArrayInputStream(original)), head, original.length);
+    }
+
+    /**
+     * Same as {@link #process(byte[])} for an image spooled to disk; decodes from the file
+     * without loading it onto the heap.
+     */
+    public Result process(Path file) throws IOException {
+        byte[] head;
+        try (InputStream in = Files.newInputStream(file)) {
+            head = in.readNBytes(HEAD_BYTES);
+        }
+        return process(new FileImageInputStream(file.toFile()), head, Files.size(file));
+    }
+
+    /**
+     * @param head the first bytes of the image, enough for magic-byte detection and the EXIF block
+     */
+    private Result process(ImageInputStream image, byte[] head, long length) {
+        String contentType = detectContentType(head);
+        try (ImageInputStream input = image) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                // WebP/HEIC and friends: nothing to decode them with, so send them unchanged
+                return new Result(contentType, null);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int maxEdge = imageConfig.getPreprocessingMaxEdge();
+                boolean fits = Math.max(width, height) <= maxEdge;
+
+                if (fits && PASSTHROUGH_TYPES.contains(contentType)
+                        && length <= imageConfig.getPreprocessingPassthroughMaxBytes()) {
+                    return new Result(contentType, null);
+                }
+                if ((long) width * height > imageConfig.getPreprocessingMaxPixels()) {
+                    log.warn("Image of {}x{} exceeds the decode limit, sending original", width, height);
+                    return new Result(contentType, null);
+                }
+
+                // Let the decoder skip pixels for very large images instead of decoding full size
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (maxEdge * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+
+                BufferedImage oriented = applyOrientation(decoded, "image/jpeg".equals(contentType) ? exifOrientation(head) : 1);
+                BufferedImage scaled = scaleToFit(oriented, maxEdge);
+                byte[] encoded = encodeJpeg(scaled);
+
+                if (fits && PASSTHROUGH_TYPES.contains(contentType) && encoded.length >= length) {
+                    return new Result(contentType, null);
+                }
+                log.debug("Image variant {}x{} -> {}x{}, {} -> {} bytes", width, height,
+                        scaled.getWidth(), scaled.getHeight(), length, encoded.length);
+                return new Result(contentType,
+                        new Variant(encoded, "image/jpeg", scaled.getWidth(), scaled.getHeight()));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to preprocess image, sending original: {}", e.getMessage());
+            return new Result(contentType, null);
+        }
+    }
+
+    /**
+     * Sniff the MIME type from magic bytes rather than trusting the client's Content-Type.
+     */
+    static String detectContentType(byte[] data) {
+        if (startsWith(data, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(data, 0, 0x89, 'P', 'N', 'G')) {
+            return "image/png";
+        }
+        if (startsWith(data, 0, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(data, 0, 'R', 'I', 'F', 'F') && startsWith(data, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        if (startsWith(data, 0, 'B', 'M')) {
+            return "image/bmp";
+        }
+        if (startsWith(data, 0, 'I', 'I', 42, 0) || startsWith(data, 0, 'M', 'M', 0, 42)) {
+            return "image/tiff";
+        }
+        // The brand follows the box type; a truncated upload may end before it
+        if (startsWith(data, 4, 'f', 't', 'y', 'p') && data.length >= 12) {
+            String brand = new String(data, 8, 4, StandardCharsets.US_ASCII);
+            if (brand.startsWith("hei") || brand.startsWith("hev")) {
+                return "image/heic";
+            }
+            if (brand.startsWith("mif") || brand.startsWith("msf")) {
+                return "image/heif";
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int... magic) {
+        if (data.length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((data[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Halve repeatedly down to the target (bilinear per step keeps detail without a slow filter),
+     * drawing onto an opaque RGB canvas so transparency becomes white rather than black.
+     */
+    private BufferedImage scaleToFit(BufferedImage source, int maxEdge) {
+        double ratio = Math.min(1.0, (double) maxEdge / Math.max(source.getWidth(), source.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                g.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(imageConfig.getPreprocessingJpegQuality());
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Re-encoding drops EXIF, so bake the camera's orientation into the pixels.
+     * Only the rotations (3, 6, 8) are handled; mirrored orientations are rare in practice.
+     */
+    private static BufferedImage applyOrientation(BufferedImage image, int orientation) {
+        int quarterTurns = switch (orientation) {
+            case 3 -> 2;
+            case 6 -> 1;
+            case 8 -> 3;
+            default -> 0;
+        };
+        if (quarterTurns == 0) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean swap = quarterTurns % 2 == 1;
+        BufferedImage rotated = new BufferedImage(swap ? height : width, swap ? width : height,
+                BufferedImage.TYPE_INT_RGB);
+        AffineTransform transform = new AffineTransform();
+        transform.translate(rotated.getWidth() / 2.0, rotated.getHeight() / 2.0);
+        transform.quadrantRotate(quarterTurns);
+        transform.translate(-width / 2.0, -height / 2.0);
+        Graphics2D g = rotated.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, rotated.getWidth(), rotated.getHeight());
+            g.drawImage(image, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return rotated;
+    }
+
+    /**
+     * Read the EXIF Orientation tag (0x0112) from a JPEG's APP1 segment; 1 if absent.
+     */
+    static int exifOrientation(byte[] jpeg) {
+        try {
+            int pos = 2;
+            while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xFF) == 0xFF) {
+                int marker = jpeg[pos + 1] & 0xFF;
+                int length = ((jpeg[pos + 2] & 0xFF) << 8) | (jpeg[pos + 3] & 0xFF);
+                if (marker == 0xDA) {
+                    break;  // start of scan: no more metadata
+                }
+                if (marker == 0xE1 && length >= 14
+                        && new String(jpeg, pos + 4, 4, StandardCharsets.US_ASCII).equals("Exif")) {
+                    int tiff = pos + 10;
+                    ByteBuffer buffer = ByteBuffer.wrap(jpeg, tiff, length - 8).slice();
+                    buffer.order(buffer.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                    int ifd = buffer.getInt(4);
+                    int entries = buffer.getShort(ifd) & 0xFFFF;
+                    for (int i = 0; i < entries; i++) {
+                        int entry = ifd + 2 + i * 12;
+                        if ((buffer.getShort(entry) & 0xFFFF) == 0x0112) {
+                            return buffer.getShort(entry + 8) & 0xFFFF;
+                        }
+                    }
+                    return 1;
+                }
+                pos += 2 + length;
+            }
+        } catch (RuntimeException e) {
+            log.debug("Unreadable EXIF block: {}", e.getMessage());
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,31 @@
+package com.widgera.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Image content for an LLM call, opened on demand so it can be streamed into the request
+ * body. May be opened more than once (retries, hedged calls); each call returns a fresh stream.
+ */
+public interface ImageSource {
+
+    InputStream open() throws IOException;
+
+    default String getContentType() {
+        return "image/jpeg";
+    }
+
+    /**
+     * Stable content hash, used to reuse uploads of the same bytes; null if unknown.
+     */
+    default String getContentHash() {
+        return null;
+    }
+
+    /**
+     * Size in bytes, or -1 if unknown.
+     */
+    default long getSize() {
+        return -1;
+    }
+}
@@ -0,0 +1,46 @@
+package com.widgera.service;
+
+import com.widgera.config.GeminiConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the Files API, for tests and for running against a fake Gemini server.
+ * Reads the content like a real upload would, keeps nothing, and hands out file URIs under
+ * {@code gemini.base-url} that expire after {@code gemini.files.local-ttl-seconds}.
+ */
+@Service
+@ConditionalOnProperty(name = "gemini.files.uploader", havingValue = "in-memory")
+@RequiredArgsConstructor
+@Slf4j
+public class InMemoryGeminiFileUploader implements GeminiFileUploader {
+
+    private final GeminiConfig geminiConfig;
+    private final AtomicInteger uploads = new AtomicInteger();
+
+    @Override
+    public GeminiFileReference upload(ImageSource image) throws IOException {
+        long read;
+        try (InputStream in = image.open()) {
+            read = in.transferTo(OutputStream.nullOutputStream());
+        }
+        uploads.incrementAndGet();
+        String uri = geminiConfig.getBaseUrl() + "/files/" + UUID.randomUUID();
+        log.debug("Stand-in upload of {} bytes as {}", read, uri);
+        return new GeminiFileReference(uri, image.getContentType(),
+                Instant.now().plusSeconds(geminiConfig.getFilesLocalTtlSeconds()));
+    }
+
+    public int getUploadCount() {
+        return uploads.get();
+    }
+}
@@ -0,0 +1,41 @@
+package com.widgera.service;
+
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+
+/**
+ * Recent latencies of successful Gemini calls, used to pick the hedging delay.
+ */
+@Service
+public class LatencyTracker {
+
+    private static final int WINDOW = 256;
+
+    private final long[] samples = new long[WINDOW];
+    private int next;
+    private int count;
+
+    public synchronized void record(long latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % WINDOW;
+        count = Math.min(count + 1, WINDOW);
+    }
+
+    /**
+     * @return the given percentile (0..1) of the window, or empty while fewer than {@code minSamples} are recorded
+     */
+    public OptionalLong percentile(double percentile, int minSamples) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < Math.max(1, minSamples)) {
+                return OptionalLong.empty();
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return OptionalLong.of(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    }
+}
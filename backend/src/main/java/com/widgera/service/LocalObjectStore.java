@@ -0,0 +1,284 @@
+package com.widgera.service;
+
+import com.widgera.config.StorageConfig;
+import com.widgera.util.HashUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Objects on the local filesystem, for on-prem installs and running without AWS.
+ * Each object lives at {@code root/ab/cd/<sha256 of key>} so no directory grows past a few thousand
+ * entries, with its content type in a {@code .type} sidecar. Browsers read and write through signed,
+ * expiring URLs served by {@link com.widgera.controller.LocalObjectController}.
+ */
+@Service
+@ConditionalOnProperty(name = "storage.type", havingValue = "local")
+@RequiredArgsConstructor
+@Slf4j
+public class LocalObjectStore implements ObjectStore {
+
+    public static final String OBJECTS_PATH = "/api/storage/objects";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final String TYPE_SUFFIX = ".type";
+
+    private final StorageConfig storageConfig;
+
+    private Path root;
+
+    @PostConstruct
+    void init() throws IOException {
+        root = Path.of(storageConfig.getLocalRoot()).toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        log.info("Local object store at {}", root);
+    }
+
+    @Override
+    public void put(String key, Path file, String contentType) throws IOException {
+        Path target = resolve(key);
+        Path temp = tempFileNextTo(target);
+        try {
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            commit(temp, target, contentType);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] bytes, String contentType) throws IOException {
+        Path target = resolve(key);
+        Path temp = tempFileNextTo(target);
+        try {
+            Files.write(temp, bytes);
+            commit(temp, target, contentType);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Store a browser upload made through a {@link #presignPut} URL. The body is hashed as it is written,
+     * and nothing is stored unless it is exactly {@code size} bytes with the signed SHA-256.
+     *
+     * @return false if the body didn't match
+     */
+    public boolean putVerified(String key, InputStream body, String contentType, long size, String sha256Hex)
+            throws IOException {
+        Path target = resolve(key);
+        Path temp = tempFileNextTo(target);
+        try {
+            MessageDigest digest = HashUtils.newSha256();
+            long written;
+            // Stop as soon as the body runs past the signed size instead of storing all of it
+            try (InputStream in = new DigestInputStream(body, digest);
+                 OutputStream out = Files.newOutputStream(temp)) {
+                written = in.transferTo(new LimitedOutputStream(out, size));
+            }
+            if (written != size || !HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(sha256Hex)) {
+                return false;
+            }
+            commit(temp, target, contentType);
+            return true;
+        } catch (LimitedOutputStream.LimitExceededException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path tempFileNextTo(Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        return Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    }
+
+    // Readers never see a partial object: the sidecar is written first, then the data is renamed into place
+    private void commit(Path temp, Path target, String contentType) throws IOException {
+        Files.writeString(typeFile(target), contentType != null ? contentType : "application/octet-stream");
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(resolve(key));
+    }
+
+    @Override
+    public byte[] getBytes(String key) throws IOException {
+        return Files.readAllBytes(resolve(key));
+    }
+
+    @Override
+    public byte[] readRange(String key, long offset, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(key))) {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                // keep reading until the range is filled or the file ends
+            }
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    @Override
+    public Optional<ObjectMetadata> head(String key) throws IOException {
+        Path path = resolve(key);
+        if (!Files.exists(path)) {
+            return Optional.empty();
+        }
+        // No stored checksum to look up; hashing a local file is cheap next to the upload itself
+        MessageDigest digest = HashUtils.newSha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return Optional.of(new ObjectMetadata(Files.size(path), contentType(path),
+                HexFormat.of().formatHex(digest.digest())));
+    }
+
+    @Override
+    public void copy(String sourceKey, String targetKey) throws IOException {
+        Path source = resolve(sourceKey);
+        put(targetKey, source, contentType(source));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Path path = resolve(key);
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(typeFile(path));
+    }
+
+    @Override
+    public String presignGet(String key, Duration ttl) {
+        long expires = Instant.now().plus(ttl).getEpochSecond();
+        return storageConfig.getLocalBaseUrl() + OBJECTS_PATH
+                + "?key=" + URLEncoder.encode(key, StandardCharsets.UTF_8)
+                + "&expires=" + expires
+                + "&signature=" + sign("GET", key, expires);
+    }
+
+    @Override
+    public PresignedPut presignPut(String key, String contentType, long size, String sha256Hex, Duration ttl) {
+        long expires = Instant.now().plus(ttl).getEpochSecond();
+        String url = storageConfig.getLocalBaseUrl() + OBJECTS_PATH
+                + "?key=" + URLEncoder.encode(key, StandardCharsets.UTF_8)
+                + "&expires=" + expires
+                + "&size=" + size
+                + "&sha256=" + sha256Hex
+                + "&signature=" + sign("PUT", key, expires, contentType, String.valueOf(size), sha256Hex);
+        return new PresignedPut(url, Map.of("Content-Type", contentType));
+    }
+
+    /**
+     * Whether a URL from {@link #presignGet} is authentic and not yet expired.
+     */
+    public boolean verifyGet(String key, long expires, String signature) {
+        return verify(signature, "GET", key, expires);
+    }
+
+    /**
+     * Whether a URL from {@link #presignPut} is authentic, not yet expired, and used with its signed content type.
+     */
+    public boolean verifyPut(String key, long expires, String contentType, long size, String sha256Hex,
+                             String signature) {
+        return verify(signature, "PUT", key, expires, contentType, String.valueOf(size), sha256Hex);
+    }
+
+    private boolean verify(String signature, String method, String key, long expires, String... extra) {
+        if (signature == null || key == null || Arrays.asList(extra).contains(null)
+                || Instant.now().getEpochSecond() > expires) {
+            return false;
+        }
+        // Constant-time comparison so the signature can't be guessed byte by byte
+        return MessageDigest.isEqual(sign(method, key, expires, extra).getBytes(StandardCharsets.US_ASCII),
+                signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Path of the object's data file. Keys are hashed, so no key can point outside the root.
+     */
+    public Path resolve(String key) {
+        String hash = HashUtils.sha256Hex(key);
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    public String contentType(Path path) throws IOException {
+        return Files.readString(typeFile(path)).trim();
+    }
+
+    private static Path typeFile(Path path) {
+        return path.resolveSibling(path.getFileName() + TYPE_SUFFIX);
+    }
+
+    private String sign(String method, String key, long expires, String... extra) {
+        StringBuilder message = new StringBuilder(method).append('\n').append(key).append('\n').append(expires);
+        for (String part : extra) {
+            message.append('\n').append(part);
+        }
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(storageConfig.getLocalSigningSecret().getBytes(StandardCharsets.UTF_8),
+                    HMAC_ALGORITHM));
+            byte[] signature = mac.doFinal(message.toString().getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 not available", e);
+        }
+    }
+
+    /**
+     * Stops a write once more than {@code limit} bytes have been written.
+     */
+    private static final class LimitedOutputStream extends FilterOutputStream {
+
+        static final class LimitExceededException extends IOException {
+        }
+
+        private long remaining;
+
+        LimitedOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) {
+                throw new LimitExceededException();
+            }
+            remaining -= len;
+            out.write(b, off, len);
+        }
+    }
+}
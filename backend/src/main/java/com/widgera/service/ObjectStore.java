@@ -0,0 +1,65 @@
+package com.widgera.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Backend for image bytes. Keys are backend-neutral paths such as {@code images/{userId}/{uuid}.jpg};
+ * an object is never rewritten under the same key.
+ */
+public interface ObjectStore {
+
+    /**
+     * What the store knows about an object. {@code sha256Hex} is null when the backend has no checksum for it.
+     */
+    record ObjectMetadata(long size, String contentType, String sha256Hex) {}
+
+    /**
+     * A URL the browser PUTs the object body to, with headers it must send exactly as given.
+     */
+    record PresignedPut(String url, Map<String, String> headers) {}
+
+    void put(String key, Path file, String contentType) throws IOException;
+
+    void put(String key, byte[] bytes, String contentType) throws IOException;
+
+    /**
+     * Stream the object; the caller must close it.
+     */
+    InputStream open(String key) throws IOException;
+
+    default byte[] getBytes(String key) throws IOException {
+        try (InputStream in = open(key)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Up to {@code length} bytes starting at {@code offset}, without fetching the rest of the object.
+     */
+    byte[] readRange(String key, long offset, int length) throws IOException;
+
+    Optional<ObjectMetadata> head(String key) throws IOException;
+
+    /**
+     * Copy an object within the store, keeping its content type. Server-side where the backend supports it.
+     */
+    void copy(String sourceKey, String targetKey) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    /**
+     * A URL a browser can GET the object from without credentials until {@code ttl} has passed.
+     */
+    String presignGet(String key, Duration ttl);
+
+    /**
+     * A URL that accepts exactly one body: {@code size} bytes of {@code contentType} whose SHA-256 is
+     * {@code sha256Hex}. The store rejects anything else, so a completed upload can be trusted by its checksum.
+     */
+    PresignedPut presignPut(String key, String contentType, long size, String sha256Hex, Duration ttl);
+}
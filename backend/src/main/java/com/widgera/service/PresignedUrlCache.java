@@ -0,0 +1,185 @@
+package com.widgera.service;
+
+import com.widgera.config.StorageConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Presigned GET URLs by object key, reused until shortly before they expire.
+ * Signing costs an HMAC per URL, and a new URL every time defeats browser caching, so URLs
+ * are kept in a local LRU (L1) backed by Redis (L2) so all nodes hand out the same one.
+ */
+@Service
+@Slf4j
+public class PresignedUrlCache {
+
+    private static final String KEY_PREFIX = "presigned:";
+    private static final int L1_MAX_ENTRIES = 10_000;
+
+    public record PresignedUrl(String url, Instant expiresAt) {
+
+        public int expiresInSeconds() {
+            return (int) Math.max(0, Duration.between(Instant.now(), expiresAt).getSeconds());
+        }
+    }
+
+    private final ObjectStore objectStore;
+    private final StorageConfig storageConfig;
+    private final StringRedisTemplate redisTemplate;
+    private final Map<String, PresignedUrl> local = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PresignedUrl> eldest) {
+            return size() > L1_MAX_ENTRIES;
+        }
+    };
+    private final Counter localHits;
+    private final Counter redisHits;
+    private final Counter signed;
+
+    public PresignedUrlCache(ObjectStore objectStore,
+                             StorageConfig storageConfig,
+                             StringRedisTemplate redisTemplate,
+                             MeterRegistry meterRegistry) {
+        this.objectStore = objectStore;
+        this.storageConfig = storageConfig;
+        this.redisTemplate = redisTemplate;
+        this.localHits = requests(meterRegistry, "local");
+        this.redisHits = requests(meterRegistry, "redis");
+        this.signed = requests(meterRegistry, "signed");
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String source) {
+        return Counter.builder("widgera.storage.presign.requests")
+                .tag("source", source)
+                .description("Presigned URL lookups by where the URL came from")
+                .register(meterRegistry);
+    }
+
+    public PresignedUrl get(String key) {
+        return getAll(List.of(key)).get(key);
+    }
+
+    /**
+     * URLs for many keys at once: one Redis round-trip for the L1 misses, one pipelined write for
+     * the newly signed ones.
+     */
+    public Map<String, PresignedUrl> getAll(Collection<String> keys) {
+        Map<String, PresignedUrl> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (local) {
+            for (String key : new LinkedHashSet<>(keys)) {
+                PresignedUrl url = local.get(key);
+                if (url != null && isFresh(url)) {
+                    result.put(key, url);
+                } else {
+                    missing.add(key);
+                }
+            }
+        }
+        localHits.increment(result.size());
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        List<String> unsigned = new ArrayList<>();
+        List<String> cached = readRedis(missing);
+        for (int i = 0; i < missing.size(); i++) {
+            PresignedUrl url = cached != null ? decode(cached.get(i)) : null;
+            if (url != null && isFresh(url)) {
+                result.put(missing.get(i), url);
+                remember(missing.get(i), url);
+                redisHits.increment();
+            } else {
+                unsigned.add(missing.get(i));
+            }
+        }
+
+        Map<String, PresignedUrl> fresh = new HashMap<>();
+        for (String key : unsigned) {
+            PresignedUrl url = sign(key);
+            fresh.put(key, url);
+            remember(key, url);
+        }
+        signed.increment(fresh.size());
+        writeRedis(fresh);
+        result.putAll(fresh);
+        return result;
+    }
+
+    private PresignedUrl sign(String key) {
+        Duration ttl = Duration.ofSeconds(storageConfig.getPresignTtlSeconds());
+        Instant expiresAt = Instant.now().plus(ttl);
+        return new PresignedUrl(objectStore.presignGet(key, ttl), expiresAt);
+    }
+
+    private boolean isFresh(PresignedUrl url) {
+        return Instant.now().plusSeconds(storageConfig.getPresignRefreshMarginSeconds()).isBefore(url.expiresAt());
+    }
+
+    private void remember(String key, PresignedUrl url) {
+        synchronized (local) {
+            local.put(key, url);
+        }
+    }
+
+    private List<String> readRedis(List<String> keys) {
+        try {
+            return redisTemplate.opsForValue().multiGet(keys.stream().map(key -> KEY_PREFIX + key).toList());
+        } catch (Exception e) {
+            log.warn("Presigned URL cache unavailable: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeRedis(Map<String, PresignedUrl> urls) {
+        if (urls.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                urls.forEach((key, url) -> {
+                    // Expire from Redis when the URL stops being worth handing out
+                    long ttlMs = Duration.between(Instant.now(), url.expiresAt()).toMillis()
+                            - storageConfig.getPresignRefreshMarginSeconds() * 1000;
+                    if (ttlMs > 0) {
+                        connection.stringCommands().set(
+                                (KEY_PREFIX + key).getBytes(StandardCharsets.UTF_8),
+                                encode(url).getBytes(StandardCharsets.UTF_8),
+                                Expiration.milliseconds(ttlMs),
+                                RedisStringCommands.SetOption.upsert());
+                    }
+                });
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Failed to store presigned URLs: {}", e.getMessage());
+        }
+    }
+
+    private static String encode(PresignedUrl url) {
+        return url.expiresAt().toEpochMilli() + " " + url.url();
+    }
+
+    private static PresignedUrl decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        int space = value.indexOf(' ');
+        try {
+            return new PresignedUrl(value.substring(space + 1), Instant.ofEpochMilli(Long.parseLong(value.substring(0, space))));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.widgera.service;
+
+import com.widgera.config.PromptConfig;
+import com.widgera.dto.BatchPromptLine;
+import com.widgera.dto.PromptRequest;
+import com.widgera.entity.PromptHistory;
+import com.widgera.entity.User;
+import com.widgera.entity.UserImage;
+import com.widgera.exception.ImageProcessingException;
+import com.widgera.exception.RateLimitExceededException;
+import com.widgera.repository.UserImageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Fans a batch of prompts out to Gemini with bounded parallelism.
+ * Results are reported in completion order; history rows are queued for a batched insert at the end.
+ */
+@Service
+@Slf4j
+public class PromptBatchService {
+
+    private final PromptService promptService;
+    private final HistoryWriteBehind historyWriteBehind;
+    private final UserImageRepository userImageRepository;
+    private final ExecutorService promptExecutor;
+    private final PromptConfig promptConfig;
+    private final Semaphore globalPermits;
+    private final Map<Long, UserPermits> userPermits = new ConcurrentHashMap<>();
+
+    public PromptBatchService(PromptService promptService,
+                              HistoryWriteBehind historyWriteBehind,
+                              UserImageRepository userImageRepository,
+                              ExecutorService promptExecutor,
+                              PromptConfig promptConfig) {
+        this.promptService = promptService;
+        this.historyWriteBehind = historyWriteBehind;
+        this.userImageRepository = userImageRepository;
+        this.promptExecutor = promptExecutor;
+        this.promptConfig = promptConfig;
+        this.globalPermits = new Semaphore(promptConfig.getBatchGlobalConcurrency(), true);
+    }
+
+    private record Completed(int index, PromptHistory history) {}
+
+    /**
+     * A user's share of the batch slots, kept only while one of their batches is running.
+     */
+    private static final class UserPermits {
+
+        private final Semaphore permits;
+        private int batches;  // guarded by the map's compute
+
+        private UserPermits(int permits) {
+            this.permits = new Semaphore(permits, true);
+        }
+    }
+
+    public void processBatch(List<PromptRequest> requests, User user, Consumer<BatchPromptLine> sink) {
+        log.info("Processing batch of {} prompts for user: {}", requests.size(), user.getUsername());
+
+        // Authorize every referenced image with one query instead of one per item
+        Set<Long> imageIds = requests.stream()
+                .map(PromptRequest::getImageId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Long, UserImage> images = imageIds.isEmpty()
+                ? Map.of()
+                : userImageRepository.findByUserAndIdIn(user, imageIds).stream()
+                        .collect(Collectors.toMap(UserImage::getId, Function.identity()));
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(promptConfig.getBatchTimeoutMs());
+        List<Completed> completed = Collections.synchronizedList(new ArrayList<>());
+
+        Semaphore perUser = userPermits.compute(user.getId(), (id, existing) -> {
+            UserPermits permits = existing != null ? existing : new UserPermits(promptConfig.getBatchPerUserConcurrency());
+            permits.batches++;
+            return permits;
+        }).permits;
+        try {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                int index = i;
+                PromptRequest request = requests.get(i);
+                tasks.add(CompletableFuture.runAsync(
+                        () -> processItem(index, request, user, images, perUser, deadline, completed, sink),
+                        promptExecutor));
+            }
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+        } finally {
+            // Dropped with the user's last batch, so the map only holds users with work in flight
+            userPermits.computeIfPresent(user.getId(), (id, permits) -> --permits.batches == 0 ? null : permits);
+        }
+
+        historyWriteBehind.save(user, completed.stream().map(Completed::history).toList());
+        Map<Integer, Long> historyIds = new TreeMap<>();
+        for (Completed item : completed) {
+            historyIds.put(item.index(), item.history().getId());
+        }
+
+        sink.accept(BatchPromptLine.builder()
+                .type("summary")
+                .succeeded(completed.size())
+                .failed(requests.size() - completed.size())
+                .historyIds(historyIds)
+                .build());
+    }
+
+    private void processItem(int index,
+                             PromptRequest request,
+                             User user,
+                             Map<Long, UserImage> images,
+                             Semaphore perUser,
+                             long deadline,
+                             List<Completed> completed,
+                             Consumer<BatchPromptLine> sink) {
+        try {
+            UserImage userImage = null;
+            if (request.getImageId() != null) {
+                userImage = images.get(request.getImageId());
+                if (userImage == null) {
+                    throw new ImageProcessingException("Image not found or access denied");
+                }
+            }
+
+            PromptService.Generation generation = generateWithBackoff(request, user, userImage, perUser, deadline);
+            completed.add(new Completed(index, promptService.buildHistory(request, generation.output(), user,
+                    userImage != null ? userImage.getStorageKey() : null)));
+
+            sink.accept(BatchPromptLine.builder()
+                    .type("result")
+                    .index(index)
+                    .output(generation.output())
+                    .cached(generation.cached())
+                    .build());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sink.accept(errorLine(index, "Interrupted"));
+        } catch (Exception e) {
+            log.warn("Batch item {} failed for user {}: {}", index, user.getUsername(), e.getMessage());
+            sink.accept(errorLine(index, e.getMessage()));
+        }
+    }
+
+    /**
+     * Batch items are already bounded by the semaphores, so rather than failing an item on a
+     * rate-limit rejection, wait out the Retry-After and try again. The item gives up its slots
+     * while it waits, so a throttled user's items never hold slots other batches could use, and it
+     * fails once the wait would run past the batch deadline.
+     */
+    private PromptService.Generation generateWithBackoff(PromptRequest request,
+                                                         User user,
+                                                         UserImage userImage,
+                                                         Semaphore perUser,
+                                                         long deadline) throws InterruptedException, TimeoutException {
+        while (true) {
+            acquirePermits(perUser, deadline);
+            long retryAfterNanos;
+            try {
+                return promptService.generate(request, user, userImage);
+            } catch (RateLimitExceededException e) {
+                retryAfterNanos = TimeUnit.SECONDS.toNanos(e.getRetryAfterSeconds());
+                if (System.nanoTime() + retryAfterNanos > deadline) {
+                    throw e;
+                }
+                log.debug("Batch item for user {} rate limited, retrying in {}s", user.getUsername(),
+                        e.getRetryAfterSeconds());
+            } finally {
+                globalPermits.release();
+                perUser.release();
+            }
+            TimeUnit.NANOSECONDS.sleep(retryAfterNanos);
+        }
+    }
+
+    private void acquirePermits(Semaphore perUser, long deadline) throws InterruptedException, TimeoutException {
+        if (!perUser.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            throw new TimeoutException("Batch timed out waiting for a free slot");
+        }
+        boolean acquired = false;
+        try {
+            acquired = globalPermits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } finally {
+            if (!acquired) {
+                perUser.release();
+            }
+        }
+        if (!acquired) {
+            throw new TimeoutException("Batch timed out waiting for a free slot");
+        }
+    }
+
+    private BatchPromptLine errorLine(int index, String message) {
+        return BatchPromptLine.builder()
+                .type("error")
+                .index(index)
+                .message(message != null ? message : "Prompt failed")
+                .build();
+    }
+}
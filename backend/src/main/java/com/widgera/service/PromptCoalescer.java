@@ -0,0 +1,195 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.widgera.config.PromptConfig;
+import com.widgera.dto.PromptRequest;
+import com.widgera.dto.PromptResponse;
+import com.widgera.entity.User;
+import com.widgera.util.HashUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight execution of identical prompts.
+ * Within a node, concurrent duplicates join the leader's future. Across nodes, a Redis marker
+ * elects one leader and the others poll for the result it publishes. The marker holds a token
+ * unique to that leadership and the result is published under it, so a follower only ever takes
+ * the result of the leader it joined, never one left behind by an earlier run of the same prompt.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PromptCoalescer {
+
+    private static final String INFLIGHT_PREFIX = "prompt-inflight:";
+    private static final String DONE_PREFIX = "prompt-done:";
+
+    // Delete the marker only if this leadership still owns it
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class
+    );
+
+    private final ConcurrentHashMap<String, CompletableFuture<PromptResponse>> inFlight = new ConcurrentHashMap<>();
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final PromptConfig promptConfig;
+
+    /**
+     * @param response the shared result
+     * @param leader   true if this caller ran the work itself (and so owns its side effects)
+     */
+    public record Outcome(PromptResponse response, boolean leader) {}
+
+    public String keyFor(PromptRequest request, User user) {
+        return HashUtils.sha256Hex(
+                String.valueOf(user.getId()),
+                request.getPrompt(),
+                HashUtils.canonicalFields(request.getFields()),
+                String.valueOf(request.getImageId())
+        );
+    }
+
+    public Outcome execute(String key, Supplier<PromptResponse> work) {
+        if (!promptConfig.isCoalescingEnabled()) {
+            return new Outcome(work.get(), true);
+        }
+
+        CompletableFuture<PromptResponse> mine = new CompletableFuture<>();
+        CompletableFuture<PromptResponse> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            log.debug("Joining in-flight prompt {}", key);
+            return new Outcome(join(existing), false);
+        }
+
+        try {
+            Outcome outcome = executeAcrossNodes(key, work);
+            mine.complete(outcome.response());
+            return outcome;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private Outcome executeAcrossNodes(String key, Supplier<PromptResponse> work) {
+        String markerKey = INFLIGHT_PREFIX + key;
+        Duration lease = Duration.ofSeconds(promptConfig.getCoalescingLeaseSeconds());
+        String token = UUID.randomUUID().toString();
+
+        String leaderToken;
+        try {
+            leaderToken = electLeader(markerKey, token, lease);
+        } catch (Exception e) {
+            log.warn("Redis unavailable for prompt coalescing, running locally: {}", e.getMessage());
+            return new Outcome(work.get(), true);
+        }
+
+        if (token.equals(leaderToken)) {
+            try {
+                PromptResponse response = work.get();
+                publish(key, token, response);
+                return new Outcome(response, true);
+            } finally {
+                release(markerKey, token);
+            }
+        }
+
+        PromptResponse remote = leaderToken != null ? awaitRemote(key, markerKey, leaderToken, lease) : null;
+        if (remote != null) {
+            log.debug("Prompt {} completed on another node", key);
+            return new Outcome(remote, false);
+        }
+
+        log.info("Remote leader for prompt {} did not publish a result, running locally", key);
+        return new Outcome(work.get(), true);
+    }
+
+    /**
+     * Take the marker, or learn the token of the leader holding it.
+     *
+     * @return {@code token} if this caller leads, the current leader's token, or null if leadership kept changing hands
+     */
+    private String electLeader(String markerKey, String token, Duration lease) {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(markerKey, token, lease))) {
+                return token;
+            }
+            String leaderToken = redisTemplate.opsForValue().get(markerKey);
+            if (leaderToken != null) {
+                return leaderToken;
+            }
+            // The leader released between the two calls; try to take over
+        }
+        return null;
+    }
+
+    private PromptResponse awaitRemote(String key, String markerKey, String leaderToken, Duration lease) {
+        String doneKey = doneKey(key, leaderToken);
+        long deadline = System.nanoTime() + lease.toNanos();
+        try {
+            while (System.nanoTime() < deadline) {
+                String json = redisTemplate.opsForValue().get(doneKey);
+                if (json != null) {
+                    return objectMapper.readValue(json, PromptResponse.class);
+                }
+                // Leader gave up without publishing (failed or crashed and its lease expired)
+                if (!leaderToken.equals(redisTemplate.opsForValue().get(markerKey))) {
+                    json = redisTemplate.opsForValue().get(doneKey);
+                    return json != null ? objectMapper.readValue(json, PromptResponse.class) : null;
+                }
+                Thread.sleep(promptConfig.getCoalescingPollIntervalMs());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Failed waiting for remote prompt result {}: {}", key, e.getMessage());
+        }
+        return null;
+    }
+
+    private void publish(String key, String token, PromptResponse response) {
+        try {
+            redisTemplate.opsForValue().set(doneKey(key, token), objectMapper.writeValueAsString(response),
+                    Duration.ofSeconds(promptConfig.getCoalescingResultTtlSeconds()));
+        } catch (Exception e) {
+            log.warn("Failed to publish coalesced prompt result {}: {}", key, e.getMessage());
+        }
+    }
+
+    private static String doneKey(String key, String token) {
+        return DONE_PREFIX + key + ":" + token;
+    }
+
+    private void release(String markerKey, String token) {
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(markerKey), token);
+        } catch (Exception e) {
+            log.warn("Failed to release in-flight marker {}: {}", markerKey, e.getMessage());
+        }
+    }
+
+    private PromptResponse join(CompletableFuture<PromptResponse> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.widgera.service;
+
+import com.widgera.config.PromptConfig;
+import com.widgera.entity.PromptHistory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bulk insert path for prompt history.
+ * PromptHistory uses IDENTITY ids, which stops Hibernate from batching inserts, so this goes
+ * through JDBC: ids are drawn from the column's sequence in blocks and kept in a local pool,
+ * and rows are written as a single JDBC batch. {@link HistoryWriteBehind} decides when.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PromptHistoryWriter {
+
+    private static final String ALLOCATE_IDS_SQL =
+            "SELECT nextval(pg_get_serial_sequence('prompt_history', 'id')) FROM generate_series(1, ?)";
+
+    private static final String INSERT_SQL =
+            "INSERT INTO prompt_history (id, user_id, prompt, image_key, field_schema_id, field_structure, response_output, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, CAST(? AS jsonb), CAST(? AS jsonb), ?)";
+
+    // Replayed rows may already have been written by the node that queued them
+    private static final String INSERT_IF_ABSENT_SQL = INSERT_SQL + " ON CONFLICT (id) DO NOTHING";
+
+    private static final String EXISTING_IDS_SQL = "SELECT id FROM prompt_history WHERE id = ANY(?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RecentHistoryCache recentHistoryCache;
+    private final PromptConfig promptConfig;
+    private final Deque<Long> idPool = new ArrayDeque<>();
+
+    /**
+     * Give rows their id and createdAt ahead of the insert, so callers can report the id straight away.
+     * Ids come from the local pool; only every {@code prompt.history.id-block-size}th id costs a round-trip.
+     */
+    public void assignIds(List<PromptHistory> rows) {
+        // Postgres keeps microseconds; the cached copies must carry the same value as the rows
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+        List<Long> ids = nextIds(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            rows.get(i).setId(ids.get(i));
+            rows.get(i).setCreatedAt(now);
+        }
+    }
+
+    private synchronized List<Long> nextIds(int count) {
+        if (idPool.size() < count) {
+            int block = Math.max(count - idPool.size(), promptConfig.getHistoryIdBlockSize());
+            idPool.addAll(jdbcTemplate.queryForList(ALLOCATE_IDS_SQL, Long.class, block));
+        }
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(idPool.poll());
+        }
+        return ids;
+    }
+
+    /**
+     * Write rows that already have ids, for any number of users, as one JDBC batch.
+     * Each user's history cache gets the rows once the transaction commits.
+     *
+     * @param ifAbsent skip rows whose id already exists instead of failing the batch
+     * @return the rows written
+     */
+    @Transactional
+    public List<PromptHistory> insertAll(List<PromptHistory> rows, boolean ifAbsent) {
+        if (ifAbsent && !rows.isEmpty()) {
+            // Batch update counts don't say which rows ON CONFLICT skipped, so look first
+            Set<Long> existing = new HashSet<>(jdbcTemplate.queryForList(EXISTING_IDS_SQL, Long.class,
+                    (Object) rows.stream().map(PromptHistory::getId).toArray(Long[]::new)));
+            rows = rows.stream().filter(row -> !existing.contains(row.getId())).toList();
+        }
+        if (rows.isEmpty()) {
+            return rows;
+        }
+
+        List<Object[]> batchArgs = new ArrayList<>(rows.size());
+        for (PromptHistory row : rows) {
+            batchArgs.add(new Object[]{
+                    row.getId(),
+                    row.getUser().getId(),
+                    row.getPrompt(),
+                    row.getImageKey(),
+                    row.getFieldSchemaId(),
+                    row.getFieldStructure(),
+                    row.getResponseOutput(),
+                    Timestamp.valueOf(row.getCreatedAt())
+            });
+        }
+        jdbcTemplate.batchUpdate(ifAbsent ? INSERT_IF_ABSENT_SQL : INSERT_SQL, batchArgs);
+
+        Map<Long, List<PromptHistory>> byUser = new LinkedHashMap<>();
+        rows.forEach(row -> byUser.computeIfAbsent(row.getUser().getId(), id -> new ArrayList<>()).add(row));
+        byUser.values().forEach(userRows -> recentHistoryCache.appendAfterCommit(userRows.get(0).getUser(), userRows));
+        return rows;
+    }
+}
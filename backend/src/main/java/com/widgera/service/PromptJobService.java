@@ -0,0 +1,257 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.widgera.config.PromptConfig;
+import com.widgera.dto.PromptJobResponse;
+import com.widgera.dto.PromptRequest;
+import com.widgera.dto.PromptResponse;
+import com.widgera.entity.PromptJob;
+import com.widgera.entity.User;
+import com.widgera.exception.LlmException;
+import com.widgera.exception.RateLimitExceededException;
+import com.widgera.repository.PromptJobRepository;
+import com.widgera.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.net.InetAddress;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Durable asynchronous prompt execution backed by the prompt_jobs table.
+ * Any node may claim jobs: claiming uses FOR UPDATE SKIP LOCKED so concurrent workers never
+ * take the same row, and a RUNNING job whose lease has expired (its worker crashed) is claimed again.
+ * Finished jobs are deleted after {@code prompt.jobs.retention-seconds}.
+ */
+@Service
+@Slf4j
+public class PromptJobService {
+
+    private static final String CLAIM_SQL = """
+            UPDATE prompt_jobs
+               SET status = 'RUNNING', lease_owner = ?, lease_expires_at = ?, attempts = attempts + 1, updated_at = ?
+             WHERE id IN (
+                   SELECT id FROM prompt_jobs
+                    WHERE status = 'PENDING' OR (status = 'RUNNING' AND lease_expires_at < ?)
+                    ORDER BY created_at
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED)
+            RETURNING id, user_id, request_payload, attempts
+            """;
+
+    private static final String FINISH_SQL = """
+            UPDATE prompt_jobs
+               SET status = ?, result_payload = ?, error_message = ?, lease_owner = NULL, lease_expires_at = NULL, updated_at = ?
+             WHERE id = ? AND lease_owner = ?
+            """;
+
+    // created_at narrows the scan through the (status, created_at) index; updated_at is when the job finished
+    private static final String PURGE_SQL = """
+            DELETE FROM prompt_jobs
+             WHERE id IN (
+                   SELECT id FROM prompt_jobs
+                    WHERE status IN ('SUCCEEDED', 'FAILED') AND created_at < ? AND updated_at < ?
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED)
+            """;
+
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    private final PromptJobRepository promptJobRepository;
+    private final UserRepository userRepository;
+    private final PromptService promptService;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService promptExecutor;
+    private final PromptConfig promptConfig;
+    private final Semaphore workerSlots;
+    private final String workerId;
+
+    public PromptJobService(PromptJobRepository promptJobRepository,
+                            UserRepository userRepository,
+                            PromptService promptService,
+                            JdbcTemplate jdbcTemplate,
+                            ObjectMapper objectMapper,
+                            ExecutorService promptExecutor,
+                            PromptConfig promptConfig) {
+        this.promptJobRepository = promptJobRepository;
+        this.userRepository = userRepository;
+        this.promptService = promptService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.promptExecutor = promptExecutor;
+        this.promptConfig = promptConfig;
+        this.workerSlots = new Semaphore(promptConfig.getJobsWorkerCount());
+        this.workerId = hostName() + "-" + UUID.randomUUID();
+    }
+
+    private record ClaimedJob(Long id, Long userId, String requestPayload, int attempts) {}
+
+    @Transactional
+    public PromptJobResponse submit(PromptRequest request, User user) {
+        try {
+            PromptJob job = PromptJob.builder()
+                    .user(user)
+                    .status(PromptJob.Status.PENDING)
+                    .requestPayload(objectMapper.writeValueAsString(request))
+                    .attempts(0)
+                    .build();
+            job = promptJobRepository.save(job);
+            log.info("Queued prompt job {} for user: {}", job.getId(), user.getUsername());
+            return toResponse(job);
+        } catch (JsonProcessingException e) {
+            log.error("Failed to serialize prompt job", e);
+            throw new RuntimeException("Failed to queue prompt", e);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<PromptJobResponse> getJob(Long jobId, User user) {
+        return promptJobRepository.findByIdAndUser(jobId, user).map(this::toResponse);
+    }
+
+    /**
+     * Claim as many jobs as this node has free worker slots and run them.
+     */
+    @Scheduled(fixedDelayString = "${prompt.jobs.poll-interval-ms:1000}")
+    public void pollJobs() {
+        if (!promptConfig.isJobsWorkerEnabled()) {
+            return;
+        }
+        int free = workerSlots.availablePermits();
+        if (free == 0) {
+            return;
+        }
+
+        List<ClaimedJob> claimed;
+        try {
+            claimed = claim(free);
+        } catch (Exception e) {
+            log.warn("Failed to claim prompt jobs: {}", e.getMessage());
+            return;
+        }
+
+        for (ClaimedJob job : claimed) {
+            workerSlots.acquireUninterruptibly();
+            promptExecutor.execute(() -> {
+                try {
+                    run(job);
+                } finally {
+                    workerSlots.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Delete finished jobs, with their request and result payloads, once the retention has passed.
+     */
+    @Scheduled(fixedDelayString = "${prompt.jobs.retention-sweep-interval-ms:3600000}")
+    public void purgeFinished() {
+        if (promptConfig.getJobsRetentionSeconds() <= 0) {
+            return;
+        }
+        Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minusSeconds(promptConfig.getJobsRetentionSeconds()));
+        int purged = 0;
+        try {
+            // Short batches, so no statement holds many row locks or runs long
+            int deleted;
+            do {
+                deleted = jdbcTemplate.update(PURGE_SQL, cutoff, cutoff, PURGE_BATCH_SIZE);
+                purged += deleted;
+            } while (deleted == PURGE_BATCH_SIZE);
+        } catch (Exception e) {
+            log.warn("Failed to purge finished prompt jobs: {}", e.getMessage());
+        }
+        if (purged > 0) {
+            log.info("Purged {} finished prompt jobs", purged);
+        }
+    }
+
+    private List<ClaimedJob> claim(int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        Timestamp leaseExpiry = Timestamp.valueOf(now.plusSeconds(promptConfig.getJobsLeaseSeconds()));
+        // Single statement, so the row locks from SKIP LOCKED are held only for the claim itself
+        return jdbcTemplate.query(CLAIM_SQL,
+                (rs, rowNum) -> new ClaimedJob(
+                        rs.getLong("id"),
+                        rs.getLong("user_id"),
+                        rs.getString("request_payload"),
+                        rs.getInt("attempts")),
+                workerId, leaseExpiry, Timestamp.valueOf(now), Timestamp.valueOf(now), limit);
+    }
+
+    private void run(ClaimedJob job) {
+        if (job.attempts() > promptConfig.getJobsMaxAttempts()) {
+            log.warn("Prompt job {} exceeded {} attempts", job.id(), promptConfig.getJobsMaxAttempts());
+            finish(job, PromptJob.Status.FAILED, null, "Job exceeded maximum attempts");
+            return;
+        }
+
+        log.info("Running prompt job {} (attempt {})", job.id(), job.attempts());
+        try {
+            PromptRequest request = objectMapper.readValue(job.requestPayload(), PromptRequest.class);
+            User user = userRepository.findById(job.userId())
+                    .orElseThrow(() -> new IllegalStateException("User not found: " + job.userId()));
+
+            PromptResponse response = promptService.processPrompt(request, user);
+            finish(job, PromptJob.Status.SUCCEEDED, objectMapper.writeValueAsString(response), null);
+        } catch (LlmException | RateLimitExceededException e) {
+            // Transient upstream failure or throttling: hand the job back to the queue until attempts run out
+            boolean retry = job.attempts() < promptConfig.getJobsMaxAttempts();
+            log.warn("Prompt job {} failed (attempt {}), {}: {}", job.id(), job.attempts(),
+                    retry ? "will retry" : "giving up", e.getMessage());
+            finish(job, retry ? PromptJob.Status.PENDING : PromptJob.Status.FAILED, null, e.getMessage());
+        } catch (Exception e) {
+            log.error("Prompt job {} failed", job.id(), e);
+            finish(job, PromptJob.Status.FAILED, null, e.getMessage());
+        }
+    }
+
+    private void finish(ClaimedJob job, PromptJob.Status status, String resultPayload, String error) {
+        // Guarded by lease_owner: if our lease expired and another worker took over, it owns the outcome
+        int updated = jdbcTemplate.update(FINISH_SQL, status.name(), resultPayload, error,
+                Timestamp.valueOf(LocalDateTime.now()), job.id(), workerId);
+        if (updated == 0) {
+            log.warn("Lost lease on prompt job {} before finishing", job.id());
+        }
+    }
+
+    private PromptJobResponse toResponse(PromptJob job) {
+        PromptResponse result = null;
+        if (job.getResultPayload() != null) {
+            try {
+                result = objectMapper.readValue(job.getResultPayload(), PromptResponse.class);
+            } catch (JsonProcessingException e) {
+                log.error("Failed to deserialize result of prompt job {}", job.getId(), e);
+            }
+        }
+        return PromptJobResponse.builder()
+                .jobId(job.getId())
+                .status(job.getStatus().name())
+                .attempts(job.getAttempts())
+                .result(result)
+                .error(job.getStatus() == PromptJob.Status.FAILED ? job.getErrorMessage() : null)
+                .createdAt(job.getCreatedAt())
+                .updatedAt(job.getUpdatedAt())
+                .build();
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "worker";
+        }
+    }
+}
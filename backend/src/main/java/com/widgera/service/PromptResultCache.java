@@ -0,0 +1,120 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.widgera.config.GeminiConfig;
+import com.widgera.dto.FieldDefinition;
+import com.widgera.util.HashUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Content-addressed cache of Gemini structured outputs.
+ * Entries are keyed by a hash of (model, prompt, ordered fields, image hash), so identical
+ * submissions from any user are served from Redis instead of a new LLM round-trip.
+ */
+@Service
+@Slf4j
+public class PromptResultCache {
+
+    private static final String KEY_PREFIX = "llm-result:";
+    private static final String INDEX_KEY = "llm-result:index";
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final GeminiConfig geminiConfig;
+    private final Counter hits;
+    private final Counter misses;
+
+    public PromptResultCache(StringRedisTemplate redisTemplate,
+                             ObjectMapper objectMapper,
+                             GeminiConfig geminiConfig,
+                             MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.geminiConfig = geminiConfig;
+        this.hits = Counter.builder("widgera.llm.cache.requests")
+                .tag("result", "hit")
+                .description("Gemini result cache lookups")
+                .register(meterRegistry);
+        this.misses = Counter.builder("widgera.llm.cache.requests")
+                .tag("result", "miss")
+                .description("Gemini result cache lookups")
+                .register(meterRegistry);
+    }
+
+    public String keyFor(String prompt, List<FieldDefinition> fields, String imageHash) {
+        return HashUtils.sha256Hex(
+                geminiConfig.getModel(),
+                prompt,
+                HashUtils.canonicalFields(fields),
+                imageHash
+        );
+    }
+
+    public Optional<Map<String, Object>> get(String key) {
+        if (!geminiConfig.isCacheEnabled()) {
+            return Optional.empty();
+        }
+        try {
+            String json = redisTemplate.opsForValue().get(KEY_PREFIX + key);
+            if (json == null) {
+                misses.increment();
+                return Optional.empty();
+            }
+            hits.increment();
+            return Optional.of(objectMapper.readValue(json, new TypeReference<>() {
+            }));
+        } catch (Exception e) {
+            // A broken cache must never fail the prompt, treat it as a miss
+            log.warn("Result cache lookup failed for key {}: {}", key, e.getMessage());
+            misses.increment();
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, Map<String, Object> output) {
+        if (!geminiConfig.isCacheEnabled()) {
+            return;
+        }
+        try {
+            String json = objectMapper.writeValueAsString(output);
+            redisTemplate.opsForValue().set(KEY_PREFIX + key, json, Duration.ofSeconds(geminiConfig.getCacheTtlSeconds()));
+            redisTemplate.opsForZSet().add(INDEX_KEY, key, System.currentTimeMillis());
+            enforceSizeLimit();
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to serialize result for cache: {}", e.getMessage());
+        } catch (Exception e) {
+            log.warn("Result cache write failed for key {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Redis has no per-prefix size bound, so insertion times are tracked in a sorted set
+     * and the oldest entries are dropped once the configured limit is exceeded.
+     */
+    private void enforceSizeLimit() {
+        Long size = redisTemplate.opsForZSet().size(INDEX_KEY);
+        if (size == null || size <= geminiConfig.getCacheMaxEntries()) {
+            return;
+        }
+        long overflow = size - geminiConfig.getCacheMaxEntries();
+        Set<String> oldest = redisTemplate.opsForZSet().range(INDEX_KEY, 0, overflow - 1);
+        if (oldest == null || oldest.isEmpty()) {
+            return;
+        }
+        redisTemplate.delete(oldest.stream().map(k -> KEY_PREFIX + k).toList());
+        redisTemplate.opsForZSet().remove(INDEX_KEY, oldest.toArray());
+        log.debug("Evicted {} result cache entries over the size limit", oldest.size());
+    }
+}
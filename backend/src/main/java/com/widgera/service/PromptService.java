@@ -1,8 +1,8 @@
 package com.widgera.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.widgera.config.PromptConfig;
 import com.widgera.dto.*;
 import com.widgera.entity.PromptHistory;
 import com.widgera.entity.User;
@@ -10,15 +10,18 @@ import com.widgera.entity.UserImage;
 import com.widgera.exception.ImageProcessingException;
 import com.widgera.repository.PromptHistoryRepository;
 import com.widgera.repository.UserImageRepository;
+import com.widgera.util.HistoryCursor;
+import com.widgera.util.SearchCursor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -28,99 +31,291 @@ public class PromptService {
 
     private final GeminiService geminiService;
     private final S3Service s3Service;
+    private final PromptResultCache resultCache;
+    private final PromptCoalescer promptCoalescer;
+    private final UserRateLimiter userRateLimiter;
+    private final PromptConfig promptConfig;
     private final PromptHistoryRepository promptHistoryRepository;
+    private final RecentHistoryCache recentHistoryCache;
+    private final HistoryQueryService historyQueryService;
+    private final HistoryWriteBehind historyWriteBehind;
+    private final FieldSchemaRegistry fieldSchemaRegistry;
     private final UserImageRepository userImageRepository;
     private final ObjectMapper objectMapper;
 
-    @Transactional
-    @CacheEvict(value = "history", key = "#user.id")
+    /**
+     * Deliberately not transactional: the Gemini call takes seconds, and a surrounding transaction
+     * would hold a pooled connection for all of it. Each phase uses the database briefly on its own:
+     * the ownership lookup is a single repository read, and the history row goes to {@link HistoryWriteBehind}.
+     */
     public PromptResponse processPrompt(PromptRequest request, User user) {
         log.info("Processing prompt for user: {}", user.getUsername());
 
-        // Download image from S3 if provided (verify ownership via imageId)
-        byte[] imageBytes = null;
-        String imageS3Url = null;
-        if (request.getImageId() != null) {
-            UserImage userImage = userImageRepository.findByIdAndUser(request.getImageId(), user)
-                    .orElseThrow(() -> new ImageProcessingException("Image not found or access denied"));
-            imageBytes = s3Service.downloadImage(userImage.getS3Url());
-            imageS3Url = userImage.getS3Url();
+        // Verify image ownership via imageId (done per caller, even for coalesced requests)
+        UserImage image = resolveImage(request, user);
+
+        // Concurrent identical requests (retries, double-clicks) share one S3 download and Gemini call
+        PromptCoalescer.Outcome outcome = promptCoalescer.execute(
+                promptCoalescer.keyFor(request, user),
+                () -> generateAndSave(request, user, image)
+        );
+
+        PromptResponse shared = outcome.response();
+        if (outcome.leader() || promptConfig.isCoalescingSharedHistory()) {
+            return copyOf(shared, shared.getHistoryId());
+        }
+
+        log.debug("Coalesced prompt for user: {}, saving own history row", user.getUsername());
+        PromptHistory history = saveToHistory(request, shared.getOutput(), user,
+                image != null ? image.getStorageKey() : null);
+        return copyOf(shared, history.getId());
+    }
+
+    /**
+     * Same pipeline as {@link #processPrompt}, but field values are pushed to {@code onField}
+     * as soon as Gemini has produced them. Cache hits replay all fields immediately.
+     * Not transactional, for the same reason as {@link #processPrompt}.
+     */
+    public PromptResponse streamPrompt(PromptRequest request, User user, BiConsumer<String, Object> onField) {
+        log.info("Streaming prompt for user: {}", user.getUsername());
+
+        UserImage userImage = resolveImage(request, user);
+        String imageKey = userImage != null ? userImage.getStorageKey() : null;
+
+        String cacheKey = resultCache.keyFor(request.getPrompt(), request.getFields(),
+                userImage != null ? userImage.getImageHash() : null);
+        Optional<Map<String, Object>> cachedOutput = resultCache.get(cacheKey);
+
+        Map<String, Object> output;
+        if (cachedOutput.isPresent()) {
+            output = cachedOutput.get();
+            output.forEach(onField);
+        } else {
+            userRateLimiter.acquire(user);
+            output = geminiService.streamStructuredOutput(
+                    request.getPrompt(),
+                    request.getFields(),
+                    userImage != null ? s3Service.imageSource(userImage) : null,
+                    onField
+            );
+            resultCache.put(cacheKey, output);
+        }
+
+        PromptHistory history = saveToHistory(request, output, user, imageKey);
+
+        return PromptResponse.builder()
+                .output(output)
+                .prompt(request.getPrompt())
+                .imageId(request.getImageId())
+                .historyId(history.getId())
+                .cached(cachedOutput.isPresent())
+                .build();
+    }
+
+    private UserImage resolveImage(PromptRequest request, User user) {
+        if (request.getImageId() == null) {
+            return null;
         }
+        return userImageRepository.findByIdAndUser(request.getImageId(), user)
+                .orElseThrow(() -> new ImageProcessingException("Image not found or access denied"));
+    }
 
-        // Call Gemini API
+    /**
+     * Outcome of the LLM stage of the pipeline, before anything is persisted.
+     */
+    public record Generation(Map<String, Object> output, boolean cached) {}
+
+    /**
+     * Run the cache lookup / Gemini stage without touching history.
+     * The image must already have been authorized for the calling user.
+     */
+    public Generation generate(PromptRequest request, User user, UserImage userImage) {
+        // Identical prompt + fields + image content is served from the cache, skipping S3 and Gemini
+        String cacheKey = resultCache.keyFor(request.getPrompt(), request.getFields(),
+                userImage != null ? userImage.getImageHash() : null);
+        Optional<Map<String, Object>> cachedOutput = resultCache.get(cacheKey);
+        if (cachedOutput.isPresent()) {
+            log.debug("Result cache HIT for prompt: {}", cacheKey);
+            return new Generation(cachedOutput.get(), true);
+        }
+
+        // Only real LLM calls count against the user's budget; cache hits are free
+        userRateLimiter.acquire(user);
+        // The image goes as a Files API reference when one exists, otherwise streamed from the object store
         Map<String, Object> output = geminiService.generateStructuredOutput(
                 request.getPrompt(),
                 request.getFields(),
-                imageBytes
+                userImage != null ? s3Service.imageSource(userImage) : null
         );
+        resultCache.put(cacheKey, output);
+        return new Generation(output, false);
+    }
 
-        // Save to history (store original S3 URL, not presigned)
-        PromptHistory history = saveToHistory(request, output, user, imageS3Url);
+    private PromptResponse generateAndSave(PromptRequest request, User user, UserImage userImage) {
+        Generation generation = generate(request, user, userImage);
+
+        // Save to history (store the object key, not a presigned URL)
+        PromptHistory history = saveToHistory(request, generation.output(), user,
+                userImage != null ? userImage.getStorageKey() : null);
 
         return PromptResponse.builder()
-                .output(output)
+                .output(generation.output())
                 .prompt(request.getPrompt())
                 .imageId(request.getImageId())
                 .historyId(history.getId())
+                .cached(generation.cached())
                 .build();
     }
 
-    private PromptHistory saveToHistory(PromptRequest request, Map<String, Object> output, User user, String imageS3Url) {
+    private PromptResponse copyOf(PromptResponse response, Long historyId) {
+        return PromptResponse.builder()
+                .output(response.getOutput())
+                .prompt(response.getPrompt())
+                .imageId(response.getImageId())
+                .historyId(historyId)
+                .cached(response.isCached())
+                .build();
+    }
+
+    private PromptHistory saveToHistory(PromptRequest request, Map<String, Object> output, User user, String imageKey) {
+        // The id is assigned now; the insert itself happens off the response path
+        PromptHistory history = buildHistory(request, output, user, imageKey);
+        historyWriteBehind.save(user, List.of(history));
+        return history;
+    }
+
+    /**
+     * Build an unsaved history row referencing the interned field list, with the output serialized to JSON.
+     */
+    public PromptHistory buildHistory(PromptRequest request, Map<String, Object> output, User user, String imageKey) {
         try {
-            String fieldStructure = objectMapper.writeValueAsString(request.getFields());
             String responseOutput = objectMapper.writeValueAsString(output);
 
-            PromptHistory history = PromptHistory.builder()
+            return PromptHistory.builder()
                     .user(user)
                     .prompt(request.getPrompt())
-                    .imageUrl(imageS3Url)
-                    .fieldStructure(fieldStructure)
+                    .imageKey(imageKey)
+                    .fieldSchemaId(fieldSchemaRegistry.idFor(request.getFields()))
                     .responseOutput(responseOutput)
                     .build();
-
-            return promptHistoryRepository.save(history);
         } catch (JsonProcessingException e) {
             log.error("Failed to serialize history data", e);
             throw new RuntimeException("Failed to save history", e);
         }
     }
 
-    @Cacheable(value = "history", key = "#user.id")
-    public List<HistoryResponse> getAllHistory(User user) {
-        log.info("Cache MISS - Fetching all history from DB for user: {}", user.getUsername());
+    /**
+     * One page of the user's history, newest first. Pages are keyset-paged on (createdAt, id), so
+     * deep pages cost the same as the first. Pages within the user's recent entries are served
+     * from {@link RecentHistoryCache}; older ones are read from the database.
+     *
+     * @param cursor {@code nextCursor} from the previous page, or null for the first page
+     * @param limit  page size, or null for the configured default
+     */
+    @Transactional(readOnly = true)
+    public HistoryPageResponse getHistoryPage(User user, String cursor, Integer limit) {
+        int size = pageSize(limit);
+        HistoryCursor after = cursor != null ? HistoryCursor.decode(cursor) : null;
 
-        List<PromptHistory> history = promptHistoryRepository.findByUserOrderByCreatedAtDesc(user);
+        RecentHistoryCache.Recent recent = recentHistoryCache.get(user).orElseGet(() -> loadRecent(user));
+        List<HistoryResponse> entries = recent.entries();
+        int start = 0;
+        if (after != null) {
+            while (start < entries.size() && !isBefore(entries.get(start), after)) {
+                start++;
+            }
+        }
 
-        return history.stream()
-                .map(this::mapToHistoryResponse)
-                .collect(Collectors.toList());
+        // One extra entry says whether there is a next page
+        List<HistoryResponse> rows;
+        if (start + size < entries.size() || recent.complete()) {
+            rows = entries.subList(start, Math.min(start + size + 1, entries.size()));
+        } else if (after == null) {
+            rows = mapAll(promptHistoryRepository.findFirstPage(user.getId(), size + 1));
+        } else {
+            rows = mapAll(promptHistoryRepository.findPageAfter(user.getId(), after.createdAt(), after.id(), size + 1));
+        }
+        return toPage(rows, size);
     }
 
-    private HistoryResponse mapToHistoryResponse(PromptHistory history) {
-        try {
-            List<FieldDefinition> fields = objectMapper.readValue(
-                    history.getFieldStructure(),
-                    new TypeReference<>() {
-                    }
-            );
+    /**
+     * History rows whose output matches {@code query}, filtered in the database and paged like
+     * {@link #getHistoryPage}. Not cached: filters are too varied to be worth it.
+     */
+    @Transactional(readOnly = true)
+    public HistoryPageResponse queryHistory(User user, HistoryQueryRequest query, String cursor, Integer limit) {
+        int size = pageSize(limit);
+        HistoryCursor after = cursor != null ? HistoryCursor.decode(cursor) : null;
+        return toPage(mapAll(historyQueryService.find(user, query, after, size + 1)), size);
+    }
 
-            Map<String, Object> output = objectMapper.readValue(
-                    history.getResponseOutput(),
-                    new TypeReference<>() {
-                    }
-            );
+    /**
+     * Full-text search over the user's prompts and extracted string values, best match first.
+     * Each item carries a {@code highlight} of the matching fragments.
+     */
+    @Transactional(readOnly = true)
+    public HistoryPageResponse searchHistory(User user, String q, String cursor, Integer limit) {
+        int size = pageSize(limit);
+        SearchCursor after = cursor != null ? SearchCursor.decode(cursor) : null;
+        List<HistoryQueryService.SearchHit> hits = historyQueryService.search(user, q, after, size + 1);
 
-            return HistoryResponse.builder()
-                    .id(history.getId())
-                    .prompt(history.getPrompt())
-                    .imageUrl(history.getImageUrl())
-                    .fields(fields)
-                    .output(output)
-                    .createdAt(history.getCreatedAt())
-                    .build();
-        } catch (JsonProcessingException e) {
-            log.error("Failed to deserialize history data", e);
-            throw new RuntimeException("Failed to read history", e);
+        boolean hasMore = hits.size() > size;
+        List<HistoryQueryService.SearchHit> page = hasMore ? hits.subList(0, size) : hits;
+        HistoryQueryService.SearchHit last = hasMore ? page.get(page.size() - 1) : null;
+
+        List<HistoryResponse> items = new ArrayList<>(page.size());
+        for (HistoryQueryService.SearchHit hit : page) {
+            HistoryResponse item = recentHistoryCache.toResponse(hit.history());
+            item.setHighlight(hit.highlight());
+            items.add(item);
         }
+        return HistoryPageResponse.builder()
+                .items(items)
+                .nextCursor(last != null ? new SearchCursor(last.rank(), last.history().getId()).encode() : null)
+                .build();
+    }
+
+    private int pageSize(Integer limit) {
+        return limit == null
+                ? promptConfig.getHistoryPageSize()
+                : Math.max(1, Math.min(limit, promptConfig.getHistoryMaxPageSize()));
+    }
+
+    /**
+     * @param rows up to {@code size + 1} rows; the extra one says whether there is a next page
+     */
+    private HistoryPageResponse toPage(List<HistoryResponse> rows, int size) {
+        boolean hasMore = rows.size() > size;
+        List<HistoryResponse> page = new ArrayList<>(hasMore ? rows.subList(0, size) : rows);
+        HistoryResponse last = hasMore ? page.get(page.size() - 1) : null;
+
+        return HistoryPageResponse.builder()
+                .items(page)
+                .nextCursor(last != null ? new HistoryCursor(last.getCreatedAt(), last.getId()).encode() : null)
+                .build();
+    }
+
+    /**
+     * Cold cache: read the newest rows once and keep them for the following reads.
+     */
+    private RecentHistoryCache.Recent loadRecent(User user) {
+        log.info("History cache MISS - Loading recent history from DB for user: {}", user.getUsername());
+        int cacheSize = promptConfig.getHistoryCacheSize();
+        String version = recentHistoryCache.version(user);
+        List<PromptHistory> rows = promptHistoryRepository.findFirstPage(user.getId(), cacheSize + 1);
+
+        boolean complete = rows.size() <= cacheSize;
+        List<HistoryResponse> entries = mapAll(complete ? rows : rows.subList(0, cacheSize));
+        recentHistoryCache.fill(user, version, entries, complete);
+        return new RecentHistoryCache.Recent(entries, complete);
+    }
+
+    private boolean isBefore(HistoryResponse entry, HistoryCursor cursor) {
+        int byTime = entry.getCreatedAt().compareTo(cursor.createdAt());
+        return byTime < 0 || (byTime == 0 && entry.getId() < cursor.id());
+    }
+
+    private List<HistoryResponse> mapAll(List<PromptHistory> rows) {
+        return rows.stream().map(recentHistoryCache::toResponse).collect(Collectors.toList());
     }
 }
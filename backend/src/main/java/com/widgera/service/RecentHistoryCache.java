@@ -0,0 +1,271 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.widgera.config.PromptConfig;
+import com.widgera.dto.FieldDefinition;
+import com.widgera.dto.HistoryResponse;
+import com.widgera.entity.PromptHistory;
+import com.widgera.entity.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The newest {@code prompt.history.cache-size} history entries per user, kept in a Redis list.
+ * New rows are pushed onto the head after their transaction commits instead of evicting the
+ * whole list, so a new prompt costs one push rather than a rebuild on the next read.
+ * <p>
+ * A cold list is filled from the database on first read. Every push bumps a per-user version,
+ * and a fill only lands if the version is unchanged since its query started, so a row committed
+ * mid-fill can never be lost from the list.
+ */
+@Service
+@Slf4j
+public class RecentHistoryCache {
+
+    private static final String LIST_PREFIX = "history:recent:";
+    private static final String META_PREFIX = "history:meta:";
+
+    private static final String COMPLETE = "complete";
+    private static final String PARTIAL = "partial";
+
+    // KEYS[1] list, KEYS[2] meta; ARGV[1] max entries, ARGV[2] ttl ms, ARGV[3..] entries oldest first
+    private static final DefaultRedisScript<Long> PUSH_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('HINCRBY', KEYS[2], 'version', 1)
+            redis.call('PEXPIRE', KEYS[2], ARGV[2])
+            if not redis.call('HGET', KEYS[2], 'state') then
+              return 0
+            end
+            for i = 3, #ARGV do
+              redis.call('LPUSH', KEYS[1], ARGV[i])
+            end
+            if redis.call('LLEN', KEYS[1]) > tonumber(ARGV[1]) then
+              redis.call('LTRIM', KEYS[1], 0, tonumber(ARGV[1]) - 1)
+              redis.call('HSET', KEYS[2], 'state', 'partial')
+            end
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    // KEYS[1] list, KEYS[2] meta; ARGV[1] expected version, ARGV[2] state, ARGV[3] ttl ms, ARGV[4..] entries newest first
+    private static final DefaultRedisScript<Long> FILL_SCRIPT = new DefaultRedisScript<>("""
+            if (redis.call('HGET', KEYS[2], 'version') or '0') ~= ARGV[1] then
+              return 0
+            end
+            redis.call('DEL', KEYS[1])
+            if #ARGV >= 4 then
+              redis.call('RPUSH', KEYS[1], unpack(ARGV, 4))
+              redis.call('PEXPIRE', KEYS[1], ARGV[3])
+            end
+            redis.call('HSET', KEYS[2], 'state', ARGV[2])
+            redis.call('PEXPIRE', KEYS[2], ARGV[3])
+            return 1
+            """, Long.class);
+
+    // KEYS[1] list, KEYS[2] meta -> {state or '', entries...}
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> READ_SCRIPT = new DefaultRedisScript<>("""
+            local entries = redis.call('LRANGE', KEYS[1], 0, -1)
+            table.insert(entries, 1, redis.call('HGET', KEYS[2], 'state') or '')
+            return entries
+            """, List.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final PromptConfig promptConfig;
+    private final FieldSchemaRegistry fieldSchemaRegistry;
+    private final Counter hits;
+    private final Counter misses;
+
+    public RecentHistoryCache(StringRedisTemplate redisTemplate,
+                              ObjectMapper objectMapper,
+                              PromptConfig promptConfig,
+                              FieldSchemaRegistry fieldSchemaRegistry,
+                              MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.promptConfig = promptConfig;
+        this.fieldSchemaRegistry = fieldSchemaRegistry;
+        this.hits = Counter.builder("widgera.history.cache.requests")
+                .tag("result", "hit")
+                .description("Recent history cache lookups")
+                .register(meterRegistry);
+        this.misses = Counter.builder("widgera.history.cache.requests")
+                .tag("result", "miss")
+                .description("Recent history cache lookups")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The cached entries, newest first.
+     *
+     * @param complete true if the list holds the user's entire history, so nothing older is in the database
+     */
+    public record Recent(List<HistoryResponse> entries, boolean complete) {}
+
+    /**
+     * @return the user's cached entries, or empty if the list is cold or Redis is unavailable
+     */
+    public Optional<Recent> get(User user) {
+        try {
+            List<?> result = redisTemplate.execute(READ_SCRIPT, keys(user));
+            if (result == null || result.isEmpty() || "".equals(result.get(0))) {
+                misses.increment();
+                return Optional.empty();
+            }
+
+            List<HistoryResponse> entries = new ArrayList<>(result.size() - 1);
+            for (Object json : result.subList(1, result.size())) {
+                entries.add(objectMapper.readValue((String) json, HistoryResponse.class));
+            }
+            // Commits from concurrent transactions can land slightly out of order
+            entries.sort(Comparator.comparing(HistoryResponse::getCreatedAt)
+                    .thenComparing(HistoryResponse::getId)
+                    .reversed());
+            hits.increment();
+            return Optional.of(new Recent(entries, COMPLETE.equals(result.get(0))));
+        } catch (Exception e) {
+            // A broken cache must never fail the history read, treat it as a miss
+            log.warn("History cache read failed for user {}: {}", user.getId(), e.getMessage());
+            misses.increment();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Version to pass to {@link #fill}; read it before querying the database.
+     *
+     * @return the version, or null if Redis is unavailable and the fill should be skipped
+     */
+    public String version(User user) {
+        try {
+            Object version = redisTemplate.opsForHash().get(META_PREFIX + user.getId(), "version");
+            return version != null ? version.toString() : "0";
+        } catch (Exception e) {
+            log.warn("History cache version read failed for user {}: {}", user.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Replace the user's list with entries read from the database, unless a push happened since {@code version}.
+     *
+     * @param entries  the newest rows, newest first, at most {@code prompt.history.cache-size}
+     * @param complete true if {@code entries} is the user's whole history
+     */
+    public void fill(User user, String version, List<HistoryResponse> entries, boolean complete) {
+        if (version == null) {
+            return;
+        }
+        try {
+            List<String> args = new ArrayList<>(entries.size() + 3);
+            args.add(version);
+            args.add(complete ? COMPLETE : PARTIAL);
+            args.add(String.valueOf(promptConfig.getHistoryCacheTtlSeconds() * 1000));
+            for (HistoryResponse entry : entries) {
+                args.add(objectMapper.writeValueAsString(entry));
+            }
+            Long filled = redisTemplate.execute(FILL_SCRIPT, keys(user), args.toArray());
+            if (filled == null || filled == 0) {
+                log.debug("History cache fill for user {} lost to a concurrent write", user.getId());
+            }
+        } catch (Exception e) {
+            log.warn("History cache fill failed for user {}: {}", user.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Push new rows onto the user's list once the surrounding transaction commits,
+     * or right away if there is none. Rows rolled back never reach the cache.
+     */
+    public void appendAfterCommit(User user, List<PromptHistory> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            append(user, rows);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                append(user, rows);
+            }
+        });
+    }
+
+    private void append(User user, List<PromptHistory> rows) {
+        try {
+            List<String> args = new ArrayList<>(rows.size() + 2);
+            args.add(String.valueOf(promptConfig.getHistoryCacheSize()));
+            args.add(String.valueOf(promptConfig.getHistoryCacheTtlSeconds() * 1000));
+            // LPUSH one at a time leaves the last argument at the head
+            List<PromptHistory> oldestFirst = new ArrayList<>(rows);
+            oldestFirst.sort(Comparator.comparing(PromptHistory::getCreatedAt).thenComparing(PromptHistory::getId));
+            for (PromptHistory row : oldestFirst) {
+                args.add(objectMapper.writeValueAsString(toResponse(row)));
+            }
+            redisTemplate.execute(PUSH_SCRIPT, keys(user), args.toArray());
+        } catch (Exception e) {
+            // The list would now miss rows; drop it so the next read refills from the database
+            log.warn("History cache push failed for user {}: {}", user.getId(), e.getMessage());
+            evict(user);
+        }
+    }
+
+    private void evict(User user) {
+        try {
+            redisTemplate.delete(keys(user));
+        } catch (Exception e) {
+            log.warn("History cache evict failed for user {}: {}", user.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Map a history row to its API form. imageUrl holds the object key; the controller swaps in a presigned URL.
+     */
+    public HistoryResponse toResponse(PromptHistory history) {
+        try {
+            // Interned lists come from the registry's cache; only pre-field_schema rows carry their own JSON
+            List<FieldDefinition> fields = history.getFieldSchemaId() != null
+                    ? fieldSchemaRegistry.fieldsFor(history.getFieldSchemaId())
+                    : objectMapper.readValue(history.getFieldStructure(), new TypeReference<List<FieldDefinition>>() {
+                    });
+
+            Map<String, Object> output = objectMapper.readValue(
+                    history.getResponseOutput(),
+                    new TypeReference<>() {
+                    }
+            );
+
+            return HistoryResponse.builder()
+                    .id(history.getId())
+                    .prompt(history.getPrompt())
+                    .imageUrl(history.getImageKey())
+                    .fields(fields)
+                    .output(output)
+                    .createdAt(history.getCreatedAt())
+                    .build();
+        } catch (JsonProcessingException e) {
+            log.error("Failed to deserialize history data", e);
+            throw new RuntimeException("Failed to read history", e);
+        }
+    }
+
+    private List<String> keys(User user) {
+        return List.of(LIST_PREFIX + user.getId(), META_PREFIX + user.getId());
+    }
+}
@@ -0,0 +1,54 @@
+package com.widgera.service;
+
+import com.widgera.config.GeminiResilienceConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+/**
+ * Node-wide cap on extra Gemini calls (retries and hedges).
+ * Every original request deposits a fraction of a token and every extra call withdraws a whole
+ * one, so extra calls stay below that fraction of traffic however badly Gemini is failing.
+ * A small per-second allowance keeps retries possible when traffic is low.
+ */
+@Service
+public class RetryBudget {
+
+    // Deposits are capped so a long quiet period can't bank a retry storm
+    private static final double MAX_BALANCE = 100;
+
+    private final GeminiResilienceConfig config;
+    private final Counter exhausted;
+    private double balance;
+    private long currentSecond;
+    private int usedThisSecond;
+
+    public RetryBudget(GeminiResilienceConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.exhausted = Counter.builder("widgera.llm.retry.budget.exhausted")
+                .description("Gemini retries or hedges skipped because the retry budget was spent")
+                .register(meterRegistry);
+    }
+
+    public synchronized void recordRequest() {
+        balance = Math.min(MAX_BALANCE, balance + config.getRetryBudgetRatio());
+    }
+
+    public synchronized boolean tryAcquire() {
+        long second = System.nanoTime() / 1_000_000_000L;
+        if (second != currentSecond) {
+            currentSecond = second;
+            usedThisSecond = 0;
+        }
+        if (usedThisSecond < config.getRetryBudgetMinPerSecond()) {
+            usedThisSecond++;
+            return true;
+        }
+        if (balance >= 1) {
+            balance -= 1;
+            return true;
+        }
+        exhausted.increment();
+        return false;
+    }
+}
@@ -0,0 +1,172 @@
+package com.widgera.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+@Service
+@ConditionalOnProperty(name = "storage.type", havingValue = "s3", matchIfMissing = true)
+@RequiredArgsConstructor
+public class S3ObjectStore implements ObjectStore {
+
+    private final S3Client s3Client;
+    private final S3Presigner s3Presigner;
+
+    @Value("${aws.s3.bucket-name}")
+    private String bucketName;
+
+    @Override
+    public void put(String key, Path file, String contentType) throws IOException {
+        put(key, contentType, RequestBody.fromFile(file));
+    }
+
+    @Override
+    public void put(String key, byte[] bytes, String contentType) throws IOException {
+        put(key, contentType, RequestBody.fromBytes(bytes));
+    }
+
+    private void put(String key, String contentType, RequestBody body) throws IOException {
+        try {
+            s3Client.putObject(PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .contentType(contentType)
+                    .build(), body);
+        } catch (SdkException e) {
+            throw new IOException("Failed to store S3 object " + key, e);
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        try {
+            return s3Client.getObject(builder -> builder.bucket(bucketName).key(key));
+        } catch (SdkException e) {
+            throw new IOException("Failed to open S3 object " + key, e);
+        }
+    }
+
+    @Override
+    public byte[] getBytes(String key) throws IOException {
+        try {
+            return s3Client.getObjectAsBytes(builder -> builder.bucket(bucketName).key(key)).asByteArray();
+        } catch (SdkException e) {
+            throw new IOException("Failed to read S3 object " + key, e);
+        }
+    }
+
+    @Override
+    public byte[] readRange(String key, long offset, int length) throws IOException {
+        try {
+            return s3Client.getObjectAsBytes(builder -> builder.bucket(bucketName).key(key)
+                    .range("bytes=" + offset + "-" + (offset + length - 1))).asByteArray();
+        } catch (SdkException e) {
+            throw new IOException("Failed to read S3 object " + key, e);
+        }
+    }
+
+    @Override
+    public Optional<ObjectMetadata> head(String key) throws IOException {
+        try {
+            HeadObjectResponse response = s3Client.headObject(builder -> builder.bucket(bucketName).key(key)
+                    .checksumMode(ChecksumMode.ENABLED));
+            String sha256 = response.checksumSHA256() != null
+                    ? HexFormat.of().formatHex(Base64.getDecoder().decode(response.checksumSHA256()))
+                    : null;
+            return Optional.of(new ObjectMetadata(response.contentLength(), response.contentType(), sha256));
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return Optional.empty();
+            }
+            throw new IOException("Failed to stat S3 object " + key, e);
+        } catch (SdkException e) {
+            throw new IOException("Failed to stat S3 object " + key, e);
+        }
+    }
+
+    @Override
+    public void copy(String sourceKey, String targetKey) throws IOException {
+        try {
+            s3Client.copyObject(builder -> builder
+                    .sourceBucket(bucketName).sourceKey(sourceKey)
+                    .destinationBucket(bucketName).destinationKey(targetKey));
+        } catch (SdkException e) {
+            throw new IOException("Failed to copy S3 object " + sourceKey + " to " + targetKey, e);
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        try {
+            s3Client.deleteObject(builder -> builder.bucket(bucketName).key(key));
+        } catch (SdkException e) {
+            throw new IOException("Failed to delete S3 object " + key, e);
+        }
+    }
+
+    @Override
+    public String presignGet(String key, Duration ttl) {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                // Objects never change under a key, so let browsers keep them for the URL's lifetime
+                .responseCacheControl("private, max-age=" + ttl.getSeconds() + ", immutable")
+                .build();
+
+        GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
+                .signatureDuration(ttl)
+                .getObjectRequest(getObjectRequest)
+                .build();
+
+        return s3Presigner.presignGetObject(presignRequest).url().toString();
+    }
+
+    @Override
+    public PresignedPut presignPut(String key, String contentType, long size, String sha256Hex, Duration ttl) {
+        // Signing the checksum makes S3 verify the body and keep the checksum for HEAD
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .contentLength(size)
+                .checksumSHA256(Base64.getEncoder().encodeToString(HexFormat.of().parseHex(sha256Hex)))
+                .build();
+
+        PresignedPutObjectRequest presigned = s3Presigner.presignPutObject(PutObjectPresignRequest.builder()
+                .signatureDuration(ttl)
+                .putObjectRequest(putObjectRequest)
+                .build());
+
+        // Browsers set Host and Content-Length themselves and refuse to have them set by scripts
+        Map<String, String> headers = new LinkedHashMap<>();
+        presigned.signedHeaders().forEach((name, values) -> {
+            if (!name.equalsIgnoreCase("host") && !name.equalsIgnoreCase("content-length")) {
+                headers.put(name, String.join(",", values));
+            }
+        });
+        return new PresignedPut(presigned.url().toString(), headers);
+    }
+}
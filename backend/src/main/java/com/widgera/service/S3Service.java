@@ -1,156 +1,344 @@
 package com.widgera.service;
 
+import com.widgera.config.ImageConfig;
+import com.widgera.entity.ImageBlob;
 import com.widgera.entity.User;
 import com.widgera.entity.UserImage;
 import com.widgera.exception.ImageProcessingException;
 import com.widgera.repository.UserImageRepository;
+import com.widgera.util.HashUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.time.Duration;
+import java.util.Collection;
 import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
+import java.util.stream.Stream;
 
+/**
+ * User images in the configured {@link ObjectStore} (S3 by default, or the local filesystem).
+ * A {@link UserImage} is one user's ownership of some content; the bytes are a shared blob, see {@link ImageBlobService}.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class S3Service {
 
-    private final S3Client s3Client;
-    private final S3Presigner s3Presigner;
+    private final ObjectStore objectStore;
+    private final PresignedUrlCache presignedUrlCache;
     private final UserImageRepository userImageRepository;
+    private final ImagePreprocessor imagePreprocessor;
+    private final ImageConfig imageConfig;
+    private final ImageByteCache imageByteCache;
+    private final ImageBlobService imageBlobService;
 
-    @Value("${aws.s3.bucket-name}")
-    private String bucketName;
-
-    @Value("${aws.s3.region}")
-    private String region;
-
-    public record UploadResult(String imageUrl, boolean isDuplicate, UserImage userImage) {}
+    public record UploadResult(boolean isDuplicate, UserImage userImage) {}
 
+    /**
+     * Reads the upload once: it is hashed while being spooled to a temp file, so only a copy
+     * buffer is on the heap. The duplicate check runs on the hash before anything reaches the object store.
+     */
     public UploadResult uploadImage(MultipartFile file, User user) {
+        Path spooled = null;
         try {
-            byte[] fileBytes = file.getBytes();
-            String imageHash = calculateHash(fileBytes);
+            spooled = Files.createTempFile("upload-", ".img");
+            MessageDigest digest = HashUtils.newSha256();
+            long size;
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest);
+                 OutputStream out = Files.newOutputStream(spooled)) {
+                size = in.transferTo(out);
+            }
+            String imageHash = HexFormat.of().formatHex(digest.digest());
 
             // Check for duplicate
             Optional<UserImage> existingImage = userImageRepository.findByUserAndImageHash(user, imageHash);
             if (existingImage.isPresent()) {
                 log.info("Duplicate image detected for user: {}", user.getUsername());
-                return new UploadResult(existingImage.get().getS3Url(), true, existingImage.get());
+                return new UploadResult(true, existingImage.get());
             }
 
-            // Generate unique key
-            String originalFilename = file.getOriginalFilename();
-            String extension = getFileExtension(originalFilename);
-            String s3Key = String.format("images/%d/%s%s", user.getId(), UUID.randomUUID(), extension);
-
-            // Upload to S3
-            PutObjectRequest putRequest = PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(s3Key)
-                    .contentType(file.getContentType())
-                    .build();
-
-            s3Client.putObject(putRequest, RequestBody.fromBytes(fileBytes));
+            // Trust the bytes, not the client's Content-Type
+            String detectedType;
+            try (InputStream head = Files.newInputStream(spooled)) {
+                detectedType = ImagePreprocessor.detectContentType(head.readNBytes(16));
+            }
+            String contentType = detectedType != null ? detectedType : file.getContentType();
 
-            // Get URL
-            String s3Url = String.format("https://%s.s3.%s.amazonaws.com/%s", bucketName, region, s3Key);
+            ImagePreprocessor.Result processed = null;
+            if (imageConfig.isPreprocessingEnabled() && imageConfig.isPreprocessingOnUpload()) {
+                try {
+                    processed = imagePreprocessor.process(spooled);
+                } catch (Exception e) {
+                    // Not fatal: the variant is retried lazily on first use
+                    log.warn("Failed to create LLM variant at upload: {}", e.getMessage());
+                }
+            }
 
-            // Save to database
             UserImage userImage = UserImage.builder()
                     .user(user)
                     .imageHash(imageHash)
-                    .s3Key(s3Key)
-                    .s3Url(s3Url)
-                    .originalFilename(originalFilename)
-                    .contentType(file.getContentType())
-                    .fileSize(file.getSize())
+                    .originalFilename(file.getOriginalFilename())
+                    .contentType(contentType)
+                    .fileSize(size)
                     .build();
+            Path original = spooled;
+            return register(userImage, key -> objectStore.put(key, original, contentType), processed);
 
-            userImage = userImageRepository.save(userImage);
-            log.info("Image uploaded successfully: {}", s3Url);
+        } catch (IOException e) {
+            log.error("Failed to read uploaded file", e);
+            throw new ImageProcessingException("Failed to process image file", e);
+        } finally {
+            if (spooled != null) {
+                try {
+                    Files.deleteIfExists(spooled);
+                } catch (IOException e) {
+                    log.warn("Failed to delete spooled upload {}: {}", spooled, e.getMessage());
+                }
+            }
+        }
+    }
 
-            return new UploadResult(s3Url, false, userImage);
+    /**
+     * Writes an image's bytes to the given object key.
+     */
+    @FunctionalInterface
+    public interface BlobWriter {
+        void write(String key) throws IOException;
+    }
 
+    /**
+     * Save a new image for its user, pointing it at the shared blob for its content. {@code writer} is
+     * only called when no other image holds the content already. If the user already has this image
+     * (a concurrent upload won), that row is returned as a duplicate.
+     * <p>
+     * Objects are written before the blob lock is taken, so the lock and a connection are only held for the
+     * reference itself. Blob keys are content-addressed, so a concurrent writer of the same hash writes the same bytes.
+     *
+     * @param processed preprocessing result for the LLM variant, or null to build it lazily
+     */
+    public UploadResult register(UserImage userImage, BlobWriter writer, ImagePreprocessor.Result processed) {
+        String hash = userImage.getImageHash();
+        Optional<ImageBlob> blob = imageBlobService.reserve(hash);
+        boolean shared = blob.isPresent() && blob.get().getRefCount() > 0;
+        userImage.setStorageKey(blob.map(ImageBlob::getStorageKey).orElseGet(() -> ImageBlobService.blobKey(hash)));
+        try {
+            if (shared) {
+                // Another user already stored this content; only the reference is new
+                shareVariant(userImage, blob.get());
+            } else {
+                // New content, or an unreferenced blob the collector may already have removed
+                writer.write(userImage.getStorageKey());
+            }
+            if (processed != null && userImage.getVariantStorageKey() == null) {
+                storeVariant(userImage, processed, userImage.getFileSize());
+            }
         } catch (IOException e) {
-            log.error("Failed to read file bytes", e);
-            throw new ImageProcessingException("Failed to process image file", e);
+            throw new ImageProcessingException("Failed to store image", e);
+        }
+
+        return imageBlobService.locked(hash, status -> {
+            // The objects are the content's own keys, so a lost race leaves nothing to clean up
+            Optional<UserImage> existing = userImageRepository.findByUserAndImageHash(userImage.getUser(), hash);
+            if (existing.isPresent()) {
+                log.info("Concurrent duplicate upload for user: {}", userImage.getUser().getUsername());
+                return new UploadResult(true, existing.get());
+            }
+
+            imageBlobService.addReference(hash, userImage.getStorageKey(), userImage.getContentType(),
+                    userImage.getFileSize());
+            UserImage saved = userImageRepository.save(userImage);
+            log.info("Image {} stored for user: {} ({})", saved.getId(), userImage.getUser().getUsername(),
+                    shared ? "shared blob" : "new blob");
+            return new UploadResult(false, saved);
+        });
+    }
+
+    /**
+     * Delete the user's image and release its blob reference; the blob itself is reclaimed by the
+     * collector once nothing references it. False if the user has no such image.
+     */
+    public boolean deleteImage(Long imageId, User user) {
+        Optional<UserImage> found = userImageRepository.findByIdAndUser(imageId, user);
+        if (found.isEmpty()) {
+            return false;
+        }
+        UserImage image = found.get();
+
+        List<String> exclusiveKeys = imageBlobService.locked(image.getImageHash(), status -> {
+            if (userImageRepository.deleteImage(image.getId()) == 0) {
+                return null;
+            }
+            Optional<ImageBlob> blob = imageBlobService.find(image.getImageHash());
+            imageBlobService.removeReference(image.getImageHash());
+            return exclusiveKeys(image, blob.map(ImageBlob::getStorageKey).orElse(null));
+        });
+        if (exclusiveKeys == null) {
+            return false;
         }
+
+        // Rows from before shared blobs own their objects outright, so those can go immediately
+        exclusiveKeys.forEach(this::deleteQuietly);
+        log.info("Deleted image {} for user: {}", imageId, user.getUsername());
+        return true;
+    }
+
+    private List<String> exclusiveKeys(UserImage image, String blobKey) {
+        Set<String> shared = blobKey != null ? Set.of(blobKey, ImageBlobService.variantKey(blobKey)) : Set.of();
+        return Stream.of(image.getStorageKey(), image.getVariantStorageKey())
+                .filter(Objects::nonNull)
+                .filter(key -> !shared.contains(key))
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * Reuse another user's LLM variant of the same content, if it is stored with the shared blob.
+     */
+    private void shareVariant(UserImage image, ImageBlob blob) {
+        Set<String> sharedKeys = Set.of(blob.getStorageKey(), ImageBlobService.variantKey(blob.getStorageKey()));
+        userImageRepository.findFirstByImageHashAndVariantStorageKeyIsNotNull(image.getImageHash())
+                .filter(sibling -> sharedKeys.contains(sibling.getVariantStorageKey()))
+                .ifPresent(sibling -> {
+                    image.setVariantStorageKey(sibling.getVariantStorageKey());
+                    image.setVariantContentType(sibling.getVariantContentType());
+                    image.setVariantFileSize(sibling.getVariantFileSize());
+                    image.setVariantHash(sibling.getVariantHash());
+                });
     }
 
-    public byte[] downloadImage(String s3Url) {
+    void deleteQuietly(String key) {
         try {
-            String s3Key = extractS3Key(s3Url);
-            return s3Client.getObjectAsBytes(builder -> builder.bucket(bucketName).key(s3Key)).asByteArray();
+            objectStore.delete(key);
         } catch (Exception e) {
-            log.error("Failed to download image from S3: {}", s3Url, e);
-            throw new ImageProcessingException("Failed to download image", e);
+            log.warn("Failed to delete object {}: {}", key, e.getMessage());
         }
     }
 
-    private String calculateHash(byte[] data) {
+    public byte[] downloadImage(String key) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(data);
-            return HexFormat.of().formatHex(hash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new ImageProcessingException("Failed to calculate image hash", e);
+            return objectStore.getBytes(key);
+        } catch (Exception e) {
+            log.error("Failed to download image: {}", key, e);
+            throw new ImageProcessingException("Failed to download image", e);
         }
     }
 
-    private String getFileExtension(String filename) {
-        if (filename == null || !filename.contains(".")) {
-            return ".jpg";
+    /**
+     * The image's LLM content. Each {@link ImageSource#open()} is served from the local byte
+     * cache when possible, otherwise streamed from the object store; the caller must close the stream.
+     */
+    public ImageSource imageSource(UserImage image) {
+        ensureVariant(image);
+        boolean hasVariant = image.getVariantStorageKey() != null;
+        String key = hasVariant ? image.getVariantStorageKey() : image.getStorageKey();
+        String contentType = hasVariant ? image.getVariantContentType() : image.getContentType();
+        Long size = hasVariant ? image.getVariantFileSize() : image.getFileSize();
+        String hash = hasVariant ? image.getVariantHash() : image.getImageHash();
+        return new ImageSource() {
+            @Override
+            public InputStream open() throws IOException {
+                try {
+                    // Only small images are cached; anything bigger streams rather than passing through a byte[]
+                    if (imageConfig.isCacheEnabled() && hash != null && size != null
+                            && size <= imageConfig.getCacheMaxEntryBytes()) {
+                        return imageByteCache.open(hash, () -> objectStore.getBytes(key));
+                    }
+                    return objectStore.open(key);
+                } catch (Exception e) {
+                    log.error("Failed to open image: {}", key, e);
+                    throw new IOException("Failed to open image", e);
+                }
+            }
+
+            @Override
+            public String getContentType() {
+                return contentType != null ? contentType : "image/jpeg";
+            }
+
+            @Override
+            public String getContentHash() {
+                return hash;
+            }
+
+            @Override
+            public long getSize() {
+                return size != null ? size : -1;
+            }
+        };
+    }
+
+    /**
+     * Lazily build the LLM variant for images uploaded before preprocessing (or with it off at upload).
+     * Failures leave the image without a variant, and the original is sent instead.
+     */
+    private void ensureVariant(UserImage image) {
+        if (!imageConfig.isPreprocessingEnabled() || image.getVariantStorageKey() != null) {
+            return;
+        }
+        try {
+            // Another user of the same blob may already have built it
+            imageBlobService.find(image.getImageHash()).ifPresent(blob -> shareVariant(image, blob));
+            if (image.getVariantStorageKey() == null) {
+                byte[] original = imageByteCache.get(image.getImageHash(), () -> downloadImage(image.getStorageKey()));
+                storeVariant(image, imagePreprocessor.process(original), original.length);
+            }
+            userImageRepository.updateVariant(image.getId(), image.getVariantStorageKey(), image.getVariantContentType(),
+                    image.getVariantFileSize(), image.getVariantHash());
+        } catch (Exception e) {
+            log.warn("Failed to create LLM variant for image {}: {}", image.getId(), e.getMessage());
         }
-        return filename.substring(filename.lastIndexOf("."));
     }
 
-    private String extractS3Key(String s3Url) {
-        // Extract key from URL like https://bucket.s3.region.amazonaws.com/key
-        String prefix = String.format("https://%s.s3.%s.amazonaws.com/", bucketName, region);
-        if (s3Url.startsWith(prefix)) {
-            return s3Url.substring(prefix.length());
+    /**
+     * Record the preprocessor's result on the entity, uploading the variant if there is one. A passthrough points the
+     * variant at the original, so the image is never processed again.
+     */
+    private void storeVariant(UserImage image, ImagePreprocessor.Result result, long originalSize) throws IOException {
+        ImagePreprocessor.Variant variant = result.variant();
+        if (variant == null) {
+            image.setVariantStorageKey(image.getStorageKey());
+            image.setVariantContentType(result.contentType() != null ? result.contentType() : image.getContentType());
+            image.setVariantFileSize(originalSize);
+            image.setVariantHash(image.getImageHash());
+            return;
         }
-        throw new ImageProcessingException("Invalid S3 URL format");
+
+        // Stored next to the original: blobs/ab/{hash}.llm.jpg
+        String variantKey = ImageBlobService.variantKey(image.getStorageKey());
+        objectStore.put(variantKey, variant.bytes(), variant.contentType());
+
+        image.setVariantStorageKey(variantKey);
+        image.setVariantContentType(variant.contentType());
+        image.setVariantFileSize((long) variant.bytes().length);
+        image.setVariantHash(HashUtils.sha256Hex(variant.bytes()));
+        log.info("Stored {}x{} LLM variant of image {} ({} -> {} bytes)", variant.width(), variant.height(),
+                image.getStorageKey(), originalSize, variant.bytes().length);
     }
 
     /**
-     * Generate a presigned URL for secure, time-limited access to an image.
-     * The URL expires after the specified duration.
+     * Presigned URL for an object key, reused from the cache until shortly before it expires.
      */
-    private String generatePresignedUrl(String s3Key, Duration expiration) {
-        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-                .bucket(bucketName)
-                .key(s3Key)
-                .build();
-
-        GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
-                .signatureDuration(expiration)
-                .getObjectRequest(getObjectRequest)
-                .build();
-
-        return s3Presigner.presignGetObject(presignRequest).url().toString();
+    public PresignedUrlCache.PresignedUrl presignedUrl(String key) {
+        return presignedUrlCache.get(key);
     }
 
     /**
-     * Generate a presigned URL from the stored S3 URL with default 1-hour expiration.
+     * Presigned URLs for many object keys in one cache round-trip, keyed by object key.
      */
-    public String generatePresignedUrlFromS3Url(String s3Url) {
-        String s3Key = extractS3Key(s3Url);
-        return generatePresignedUrl(s3Key, Duration.ofHours(1));
+    public Map<String, PresignedUrlCache.PresignedUrl> presignedUrls(Collection<String> keys) {
+        return presignedUrlCache.getAll(keys);
     }
 }
@@ -0,0 +1,110 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental parser for the JSON object the model streams back in text fragments.
+ * Fragments are pushed into Jackson's non-blocking parser, and each top-level scalar is
+ * reported as soon as its value token is complete, long before the closing brace arrives.
+ * Anything before the first '{' (e.g. a markdown fence) and after the closing '}' is ignored.
+ */
+public class StreamingFieldParser {
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private int depth;
+    private String currentField;
+    private boolean started;
+    private boolean complete;
+
+    public StreamingFieldParser(JsonFactory jsonFactory) throws IOException {
+        this.parser = jsonFactory.createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Feed the next text fragment.
+     *
+     * @return top-level fields whose values were completed by this fragment, in arrival order
+     */
+    public List<Map.Entry<String, JsonNode>> feed(String fragment) throws IOException {
+        List<Map.Entry<String, JsonNode>> completed = new ArrayList<>();
+        if (complete || fragment == null || fragment.isEmpty()) {
+            return completed;
+        }
+        if (!started) {
+            int brace = fragment.indexOf('{');
+            if (brace < 0) {
+                return completed;
+            }
+            fragment = fragment.substring(brace);
+            started = true;
+        }
+
+        byte[] bytes = fragment.getBytes(StandardCharsets.UTF_8);
+        feeder.feedInput(bytes, 0, bytes.length);
+
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case START_OBJECT, START_ARRAY -> depth++;
+                case END_OBJECT, END_ARRAY -> {
+                    depth--;
+                    if (depth == 0) {
+                        complete = true;
+                        feeder.endOfInput();
+                        return completed;
+                    }
+                }
+                case FIELD_NAME -> {
+                    if (depth == 1) {
+                        currentField = parser.currentName();
+                    }
+                }
+                default -> {
+                    if (depth == 1 && currentField != null && token.isScalarValue()) {
+                        completed.add(Map.entry(currentField, scalarNode(token)));
+                        currentField = null;
+                    }
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * True once the top-level object has been closed.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    private JsonNode scalarNode(JsonToken token) throws IOException {
+        JsonNodeFactory nodes = JsonNodeFactory.instance;
+        return switch (token) {
+            case VALUE_STRING -> nodes.textNode(parser.getText());
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> switch (parser.getNumberType()) {
+                case INT -> nodes.numberNode(parser.getIntValue());
+                case LONG -> nodes.numberNode(parser.getLongValue());
+                case BIG_INTEGER -> nodes.numberNode(parser.getBigIntegerValue());
+                case BIG_DECIMAL -> nodes.numberNode(parser.getDecimalValue());
+                default -> nodes.numberNode(parser.getDoubleValue());
+            };
+            case VALUE_TRUE -> nodes.booleanNode(true);
+            case VALUE_FALSE -> nodes.booleanNode(false);
+            default -> NullNode.getInstance();
+        };
+    }
+}
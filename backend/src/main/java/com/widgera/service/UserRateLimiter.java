@@ -0,0 +1,94 @@
+package com.widgera.service;
+
+import com.widgera.config.GeminiConfig;
+import com.widgera.entity.User;
+import com.widgera.exception.RateLimitExceededException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Per-user token bucket for LLM calls, kept in Redis so the limit holds across nodes.
+ * Refill and take happen atomically in one Lua script using the Redis server clock.
+ */
+@Service
+@Slf4j
+public class UserRateLimiter {
+
+    private static final String KEY_PREFIX = "rate-limit:llm:";
+
+    // KEYS[1] bucket, ARGV[1] capacity, ARGV[2] refill per ms -> {allowed, retryAfterMs}
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> TOKEN_BUCKET_SCRIPT = new DefaultRedisScript<>("""
+            local capacity = tonumber(ARGV[1])
+            local rate = tonumber(ARGV[2])
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+            local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+            local tokens = tonumber(bucket[1])
+            local ts = tonumber(bucket[2])
+            if tokens == nil then
+              tokens = capacity
+              ts = now
+            end
+            tokens = math.min(capacity, tokens + (now - ts) * rate)
+            local allowed = 0
+            local retry = 0
+            if tokens >= 1 then
+              tokens = tokens - 1
+              allowed = 1
+            else
+              retry = math.ceil((1 - tokens) / rate)
+            end
+            redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'ts', now)
+            redis.call('PEXPIRE', KEYS[1], math.ceil(capacity / rate) + 1000)
+            return {allowed, retry}
+            """, List.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final GeminiConfig geminiConfig;
+    private final Counter rejections;
+
+    public UserRateLimiter(StringRedisTemplate redisTemplate, GeminiConfig geminiConfig, MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.geminiConfig = geminiConfig;
+        this.rejections = Counter.builder("widgera.llm.limiter.rejections")
+                .tag("reason", "user-rate")
+                .description("Gemini calls rejected by the per-user token bucket")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Take one token for the user or throw with the time until the next token is available.
+     */
+    public void acquire(User user) {
+        if (!geminiConfig.isRateLimitEnabled()) {
+            return;
+        }
+
+        List<?> result;
+        try {
+            double refillPerMs = geminiConfig.getRateLimitRefillPerMinute() / 60_000.0;
+            result = redisTemplate.execute(TOKEN_BUCKET_SCRIPT, List.of(KEY_PREFIX + user.getId()),
+                    String.valueOf(geminiConfig.getRateLimitCapacity()), String.valueOf(refillPerMs));
+        } catch (Exception e) {
+            // Fail open: losing Redis must not take prompt processing down with it
+            log.warn("Rate limiter unavailable, allowing request: {}", e.getMessage());
+            return;
+        }
+
+        if (result == null || result.size() < 2 || ((Number) result.get(0)).longValue() == 1) {
+            return;
+        }
+
+        rejections.increment();
+        long retryAfterSeconds = Math.max(1, (((Number) result.get(1)).longValue() + 999) / 1000);
+        throw new RateLimitExceededException("Too many LLM requests, retry in " + retryAfterSeconds + "s",
+                retryAfterSeconds);
+    }
+}
@@ -0,0 +1,78 @@
+package com.widgera.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Reads the standard Base64 encoding of another stream, a fixed-size chunk at a time, so large
+ * binaries can be embedded in a request body without ever being held in memory as a whole.
+ */
+public class Base64EncodingInputStream extends InputStream {
+
+    // Multiple of 3 so every chunk except the last encodes without padding
+    private static final int CHUNK_SIZE = 3 * 4096;
+
+    private final InputStream source;
+    private final Base64.Encoder encoder = Base64.getEncoder();
+    private final byte[] raw = new byte[CHUNK_SIZE];
+    private final byte[] encoded = new byte[CHUNK_SIZE / 3 * 4];
+    private int position;
+    private int limit;
+    private boolean exhausted;
+
+    public Base64EncodingInputStream(InputStream source) {
+        this.source = source;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? encoded[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(encoded, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+        int n = source.readNBytes(raw, 0, CHUNK_SIZE);
+        if (n < CHUNK_SIZE) {
+            exhausted = true;
+        }
+        if (n == 0) {
+            return false;
+        }
+        position = 0;
+        limit = n == CHUNK_SIZE
+                ? encoder.encode(raw, encoded)
+                : encoder.encode(Arrays.copyOf(raw, n), encoded);
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+package com.widgera.util;
+
+import com.widgera.dto.FieldDefinition;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+public final class HashUtils {
+
+    private HashUtils() {
+    }
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String sha256Hex(byte[] data) {
+        return HexFormat.of().formatHex(newSha256().digest(data));
+    }
+
+    /**
+     * Hash an ordered list of string parts. Each part is length-prefixed so that
+     * ("ab", "c") and ("a", "bc") never collide; null parts are encoded distinctly from "".
+     */
+    public static String sha256Hex(String... parts) {
+        MessageDigest digest = newSha256();
+        for (String part : parts) {
+            update(digest, part);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Canonical string for an ordered field list, suitable as a hash input.
+     * Order is significant because it drives the order of the output object.
+     * Names are prefixed with their UTF-8 byte length, which SchemaMigrations reproduces in SQL.
+     */
+    public static String canonicalFields(List<FieldDefinition> fields) {
+        StringBuilder sb = new StringBuilder();
+        for (FieldDefinition field : fields) {
+            sb.append(field.getName().getBytes(StandardCharsets.UTF_8).length).append(':').append(field.getName())
+                    .append('=').append(field.getType()).append(';');
+        }
+        return sb.toString();
+    }
+
+    public static String fieldSetHash(List<FieldDefinition> fields) {
+        return sha256Hex(canonicalFields(fields));
+    }
+
+    private static void update(MessageDigest digest, String part) {
+        if (part == null) {
+            digest.update(ByteBuffer.allocate(4).putInt(-1).array());
+            return;
+        }
+        byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+}
@@ -0,0 +1,87 @@
+package com.widgera.service;
+
+import com.widgera.config.GeminiConfig;
+import com.widgera.exception.RateLimitExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        GeminiConfig config = new GeminiConfig();
+        ReflectionTestUtils.setField(config, "limiterInitialLimit", 4);
+        ReflectionTestUtils.setField(config, "limiterMinLimit", 2);
+        ReflectionTestUtils.setField(config, "limiterMaxLimit", 5);
+        ReflectionTestUtils.setField(config, "limiterBackoffRatio", 0.5);
+        // Scheduling noise in the test must never count as a latency spike
+        ReflectionTestUtils.setField(config, "limiterLatencyTolerance", Double.MAX_VALUE);
+        limiter = new AdaptiveConcurrencyLimiter(config, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void rejectsCallsOverTheLimit() {
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+
+        assertThatThrownBy(limiter::acquire)
+                .isInstanceOf(RateLimitExceededException.class)
+                .satisfies(e -> assertThat(((RateLimitExceededException) e).getRetryAfterSeconds()).isEqualTo(1));
+    }
+
+    @Test
+    void releasingFreesASlot() {
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire();
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire();
+        }
+
+        first.release(true);
+
+        limiter.acquire();
+    }
+
+    @Test
+    void releasingTwiceCountsOnce() {
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+
+        permit.release(false);
+        permit.release(false);
+
+        assertThat(limiter.getLimit()).isEqualTo(2.0);
+    }
+
+    @Test
+    void growsAdditivelyOnSuccess() {
+        limiter.acquire().release(true);
+
+        assertThat(limiter.getLimit()).isCloseTo(4.25, within(1e-9));
+    }
+
+    @Test
+    void shrinksMultiplicativelyOnFailureDownToTheMinimum() {
+        limiter.acquire().release(false);
+        assertThat(limiter.getLimit()).isEqualTo(2.0);
+
+        limiter.acquire().release(false);
+        assertThat(limiter.getLimit()).isEqualTo(2.0);
+    }
+
+    @Test
+    void neverGrowsPastTheMaximum() {
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire().release(true);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(5.0);
+    }
+}
@@ -0,0 +1,139 @@
+package com.widgera.service;
+
+import com.widgera.config.GeminiResilienceConfig;
+import com.widgera.exception.LlmException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GeminiCircuitBreakerTest {
+
+    private static final long OPEN_DURATION_MS = 50;
+
+    private GeminiResilienceConfig config;
+    private GeminiCircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        config = new GeminiResilienceConfig();
+        ReflectionTestUtils.setField(config, "circuitBreakerEnabled", true);
+        ReflectionTestUtils.setField(config, "circuitBreakerWindowSize", 10);
+        ReflectionTestUtils.setField(config, "circuitBreakerMinimumCalls", 4);
+        ReflectionTestUtils.setField(config, "circuitBreakerFailureRateThreshold", 0.5);
+        ReflectionTestUtils.setField(config, "circuitBreakerSlowCallRateThreshold", 0.8);
+        ReflectionTestUtils.setField(config, "circuitBreakerSlowCallDurationMs", 1000L);
+        ReflectionTestUtils.setField(config, "circuitBreakerOpenDurationMs", OPEN_DURATION_MS);
+        ReflectionTestUtils.setField(config, "circuitBreakerHalfOpenCalls", 2);
+        breaker = new GeminiCircuitBreaker(config, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void staysClosedBelowMinimumCalls() {
+        recordCalls(3, false, 10);
+
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.CLOSED);
+        breaker.acquirePermission();
+    }
+
+    @Test
+    void staysClosedBelowFailureRate() {
+        recordCalls(3, true, 10);
+        recordCalls(2, false, 10);
+
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void opensOnFailureRateAndRejectsCalls() {
+        recordCalls(2, true, 10);
+        recordCalls(2, false, 10);
+
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.OPEN);
+        assertThatThrownBy(breaker::acquirePermission).isInstanceOf(LlmException.class);
+    }
+
+    @Test
+    void opensOnSlowCallRate() {
+        recordCalls(4, true, 5000);
+
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void halfOpensAfterOpenDurationAndLimitsTrialCalls() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION_MS + 20);
+
+        breaker.acquirePermission();
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.HALF_OPEN);
+        breaker.acquirePermission();
+        assertThatThrownBy(breaker::acquirePermission).isInstanceOf(LlmException.class);
+    }
+
+    @Test
+    void closesWhenTrialCallsSucceed() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION_MS + 20);
+
+        breaker.acquirePermission();
+        breaker.acquirePermission();
+        breaker.record(true, 10);
+        breaker.record(true, 10);
+
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.CLOSED);
+        breaker.acquirePermission();
+    }
+
+    @Test
+    void reopensWhenTrialCallsFail() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION_MS + 20);
+
+        breaker.acquirePermission();
+        breaker.acquirePermission();
+        breaker.record(false, 10);
+        breaker.record(false, 10);
+
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.OPEN);
+        assertThatThrownBy(breaker::acquirePermission).isInstanceOf(LlmException.class);
+    }
+
+    @Test
+    void releaseReturnsATrialSlot() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION_MS + 20);
+
+        breaker.acquirePermission();
+        breaker.acquirePermission();
+        breaker.release();
+
+        breaker.acquirePermission();
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.HALF_OPEN);
+    }
+
+    @Test
+    void neverOpensWhenDisabled() {
+        ReflectionTestUtils.setField(config, "circuitBreakerEnabled", false);
+
+        recordCalls(10, false, 10);
+
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.CLOSED);
+        breaker.acquirePermission();
+    }
+
+    private void open() {
+        recordCalls(4, false, 10);
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.OPEN);
+    }
+
+    private void recordCalls(int count, boolean success, long durationMs) {
+        for (int i = 0; i < count; i++) {
+            breaker.acquirePermission();
+            breaker.record(success, durationMs);
+        }
+    }
+}
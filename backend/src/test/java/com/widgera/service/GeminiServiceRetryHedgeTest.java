@@ -0,0 +1,310 @@
+package com.widgera.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.widgera.config.GeminiConfig;
+import com.widgera.config.GeminiResilienceConfig;
+import com.widgera.dto.FieldDefinition;
+import com.widgera.exception.GeminiApiException;
+import com.widgera.exception.LlmException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Retry, hedging and file-reference handling against a local fake of the generateContent endpoint.
+ */
+class GeminiServiceRetryHedgeTest {
+
+    private static final String MODEL = "test-model";
+    private static final String OK_BODY =
+            "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"{\\\"total\\\":42}\"}]},\"finishReason\":\"STOP\"}]}";
+    private static final List<FieldDefinition> FIELDS = List.of(new FieldDefinition("total", "number"));
+
+    private interface Behaviour {
+        void respond(HttpExchange exchange) throws IOException;
+    }
+
+    private final Queue<Behaviour> behaviours = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch releaseStalled = new CountDownLatch(1);
+    private ExecutorService serverExecutor;
+    private HttpServer server;
+    private GeminiResilienceConfig resilienceConfig;
+    private GeminiCircuitBreaker circuitBreaker;
+    private LatencyTracker latencyTracker;
+    private GeminiConfig geminiConfig;
+    private InMemoryGeminiFileUploader uploader;
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private GeminiService geminiService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/models/" + MODEL + ":generateContent", exchange -> {
+            requests.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            Behaviour behaviour = behaviours.poll();
+            try (exchange) {
+                (behaviour != null ? behaviour : ok()).respond(exchange);
+            }
+        });
+        server.start();
+
+        geminiConfig = new GeminiConfig();
+        ReflectionTestUtils.setField(geminiConfig, "apiKey", "test-key");
+        ReflectionTestUtils.setField(geminiConfig, "model", MODEL);
+        ReflectionTestUtils.setField(geminiConfig, "baseUrl", "http://127.0.0.1:" + server.getAddress().getPort());
+        ReflectionTestUtils.setField(geminiConfig, "readTimeoutMs", 10_000L);
+        ReflectionTestUtils.setField(geminiConfig, "totalTimeoutMs", 10_000L);
+        ReflectionTestUtils.setField(geminiConfig, "schemaCacheSize", 16);
+        ReflectionTestUtils.setField(geminiConfig, "schemaMaxOutputTokens", 1024);
+        ReflectionTestUtils.setField(geminiConfig, "limiterInitialLimit", 10);
+        ReflectionTestUtils.setField(geminiConfig, "limiterMinLimit", 10);
+        ReflectionTestUtils.setField(geminiConfig, "limiterMaxLimit", 10);
+        ReflectionTestUtils.setField(geminiConfig, "limiterBackoffRatio", 0.9);
+        ReflectionTestUtils.setField(geminiConfig, "limiterLatencyTolerance", 2.0);
+        ReflectionTestUtils.setField(geminiConfig, "filesLocalTtlSeconds", 3600L);
+        ReflectionTestUtils.setField(geminiConfig, "filesRefreshMarginSeconds", 60L);
+
+        resilienceConfig = new GeminiResilienceConfig();
+        ReflectionTestUtils.setField(resilienceConfig, "circuitBreakerEnabled", true);
+        ReflectionTestUtils.setField(resilienceConfig, "circuitBreakerWindowSize", 10);
+        ReflectionTestUtils.setField(resilienceConfig, "circuitBreakerMinimumCalls", 5);
+        ReflectionTestUtils.setField(resilienceConfig, "circuitBreakerFailureRateThreshold", 0.5);
+        ReflectionTestUtils.setField(resilienceConfig, "circuitBreakerSlowCallRateThreshold", 1.0);
+        ReflectionTestUtils.setField(resilienceConfig, "circuitBreakerSlowCallDurationMs", 10_000L);
+        ReflectionTestUtils.setField(resilienceConfig, "circuitBreakerOpenDurationMs", 10_000L);
+        ReflectionTestUtils.setField(resilienceConfig, "circuitBreakerHalfOpenCalls", 2);
+        ReflectionTestUtils.setField(resilienceConfig, "retryMaxAttempts", 3);
+        ReflectionTestUtils.setField(resilienceConfig, "retryBaseBackoffMs", 10L);
+        ReflectionTestUtils.setField(resilienceConfig, "retryMaxBackoffMs", 50L);
+        ReflectionTestUtils.setField(resilienceConfig, "retryBudgetRatio", 0.2);
+        ReflectionTestUtils.setField(resilienceConfig, "retryBudgetMinPerSecond", 10);
+        ReflectionTestUtils.setField(resilienceConfig, "hedgingPercentile", 0.9);
+        ReflectionTestUtils.setField(resilienceConfig, "hedgingMinSamples", 5);
+        ReflectionTestUtils.setField(resilienceConfig, "hedgingMinDelayMs", 20L);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        circuitBreaker = new GeminiCircuitBreaker(resilienceConfig, meterRegistry);
+        latencyTracker = new LatencyTracker();
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        @SuppressWarnings("unchecked")
+        ValueOperations<String, String> values = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        uploader = new InMemoryGeminiFileUploader(geminiConfig);
+        GeminiFileCache fileCache = new GeminiFileCache(redisTemplate, objectMapper, geminiConfig, uploader, meterRegistry);
+        geminiService = new GeminiService(
+                geminiConfig,
+                objectMapper,
+                HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build(),
+                concurrencyLimiter = new AdaptiveConcurrencyLimiter(geminiConfig, meterRegistry),
+                resilienceConfig,
+                circuitBreaker,
+                new RetryBudget(resilienceConfig, meterRegistry),
+                latencyTracker,
+                new FieldSchemaCache(geminiConfig),
+                fileCache);
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseStalled.countDown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    void retriesTransientFailure() {
+        behaviours.add(status(503));
+
+        Map<String, Object> result = geminiService.generateStructuredOutput("Sum it", FIELDS, null);
+
+        assertThat(result).containsEntry("total", 42);
+        assertThat(requests.get()).isEqualTo(2);
+        assertThat(circuitBreaker.getState()).isEqualTo(GeminiCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        behaviours.add(status(503));
+        behaviours.add(status(503));
+        behaviours.add(status(503));
+
+        assertThatThrownBy(() -> geminiService.generateStructuredOutput("Sum it", FIELDS, null))
+                .isInstanceOf(GeminiApiException.class)
+                .satisfies(e -> assertThat(((GeminiApiException) e).getStatusCode()).isEqualTo(503));
+        assertThat(requests.get()).isEqualTo(3);
+    }
+
+    @Test
+    void doesNotRetryClientError() {
+        behaviours.add(status(400));
+
+        assertThatThrownBy(() -> geminiService.generateStructuredOutput("Sum it", FIELDS, null))
+                .isInstanceOf(GeminiApiException.class);
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    void hedgesStalledCall() {
+        ReflectionTestUtils.setField(resilienceConfig, "hedgingEnabled", true);
+        for (int i = 0; i < 5; i++) {
+            latencyTracker.record(50);
+        }
+        behaviours.add(stalled());
+
+        long startNanos = System.nanoTime();
+        Map<String, Object> result = geminiService.generateStructuredOutput("Sum it", FIELDS, null);
+
+        assertThat(result).containsEntry("total", 42);
+        assertThat(requests.get()).isEqualTo(2);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).isLessThan(5_000);
+        // The abandoned call is neither a failure nor a success for the breaker
+        assertThat(circuitBreaker.getState()).isEqualTo(GeminiCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void doesNotHedgeWithoutLatencyHistory() {
+        ReflectionTestUtils.setField(resilienceConfig, "hedgingEnabled", true);
+
+        Map<String, Object> result = geminiService.generateStructuredOutput("Sum it", FIELDS, null);
+
+        assertThat(result).containsEntry("total", 42);
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    void releasesSlotsWhenSendFailsImmediately() throws InterruptedException {
+        HttpClient closed = mock(HttpClient.class);
+        when(closed.sendAsync(any(), any())).thenThrow(new IllegalStateException("client is shut down"));
+        ReflectionTestUtils.setField(geminiService, "geminiHttpClient", closed);
+        ReflectionTestUtils.setField(resilienceConfig, "retryMaxAttempts", 1);
+        open(circuitBreaker);
+        Thread.sleep(60);
+
+        for (int i = 0; i < 20; i++) {
+            assertThatThrownBy(() -> geminiService.generateStructuredOutput("Sum it", FIELDS, null))
+                    .isInstanceOf(LlmException.class);
+        }
+
+        // Half-open trial slots and concurrency permits all came back
+        assertThat(circuitBreaker.getState()).isEqualTo(GeminiCircuitBreaker.State.HALF_OPEN);
+        concurrencyLimiter.acquire().release(true);
+        circuitBreaker.acquirePermission();
+    }
+
+    private void open(GeminiCircuitBreaker breaker) {
+        ReflectionTestUtils.setField(resilienceConfig, "circuitBreakerOpenDurationMs", 50L);
+        for (int i = 0; i < 5; i++) {
+            breaker.acquirePermission();
+            breaker.record(false, 10);
+        }
+        assertThat(breaker.getState()).isEqualTo(GeminiCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void reuploadsWhenFileReferenceIsGone() {
+        ReflectionTestUtils.setField(geminiConfig, "filesEnabled", true);
+        behaviours.add(status(404, "{\"error\":{\"code\":404,\"status\":\"NOT_FOUND\"}}"));
+
+        Map<String, Object> result = geminiService.generateStructuredOutput("Sum it", FIELDS, image());
+
+        assertThat(result).containsEntry("total", 42);
+        assertThat(uploader.getUploadCount()).isEqualTo(2);
+        assertThat(requests.get()).isEqualTo(2);
+    }
+
+    @Test
+    void keepsFileReferenceOnUnrelatedBadRequest() {
+        ReflectionTestUtils.setField(geminiConfig, "filesEnabled", true);
+        behaviours.add(status(400, "{\"error\":{\"code\":400,\"message\":\"Invalid JSON payload received.\"}}"));
+
+        assertThatThrownBy(() -> geminiService.generateStructuredOutput("Sum it", FIELDS, image()))
+                .isInstanceOf(GeminiApiException.class);
+        assertThat(uploader.getUploadCount()).isEqualTo(1);
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    private static ImageSource image() {
+        return new ImageSource() {
+            @Override
+            public InputStream open() {
+                return new ByteArrayInputStream(new byte[]{1, 2, 3});
+            }
+
+            @Override
+            public String getContentHash() {
+                return "abc123";
+            }
+        };
+    }
+
+    private static Behaviour ok() {
+        return exchange -> {
+            byte[] body = OK_BODY.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        };
+    }
+
+    private static Behaviour status(int status) {
+        return exchange -> exchange.sendResponseHeaders(status, -1);
+    }
+
+    private static Behaviour status(int status, String body) {
+        return exchange -> {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        };
+    }
+
+    private Behaviour stalled() {
+        return exchange -> {
+            try {
+                releaseStalled.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+}
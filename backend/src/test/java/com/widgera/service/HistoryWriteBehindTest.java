@@ -0,0 +1,116 @@
+package com.widgera.service;
+
+import com.widgera.config.PromptConfig;
+import com.widgera.entity.PromptHistory;
+import com.widgera.entity.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HistoryWriteBehindTest {
+
+    private static final long BAD_ID = 2;
+
+    private final PromptHistoryWriter writer = mock(PromptHistoryWriter.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Long> written = new ArrayList<>();
+    private final AtomicBoolean databaseDown = new AtomicBoolean();
+    private HistoryWriteBehind writeBehind;
+
+    @BeforeEach
+    void setUp() {
+        PromptConfig config = new PromptConfig();
+        ReflectionTestUtils.setField(config, "historyWriteBehindEnabled", true);
+        ReflectionTestUtils.setField(config, "historyWriteBehindQueueCapacity", 100);
+        ReflectionTestUtils.setField(config, "historyWriteBehindBatchSize", 10);
+        ReflectionTestUtils.setField(config, "historyWriteBehindMaxAttempts", 3);
+
+        // Postgres refuses the whole batch if any row in it is bad
+        when(writer.insertAll(anyList(), anyBoolean())).thenAnswer(invocation -> {
+            List<PromptHistory> rows = invocation.getArgument(0);
+            if (databaseDown.get()) {
+                throw new CannotGetJdbcConnectionException("connection refused");
+            }
+            if (rows.stream().anyMatch(row -> row.getId() == BAD_ID)) {
+                throw new DataIntegrityViolationException("invalid byte sequence for encoding \"UTF8\": 0x00");
+            }
+            rows.forEach(row -> written.add(row.getId()));
+            return rows;
+        });
+        writeBehind = new HistoryWriteBehind(writer, mock(StringRedisTemplate.class), config, meterRegistry);
+    }
+
+    @Test
+    void badRowHoldsUpOnlyItself() {
+        writeBehind.save(user(), rows(1, 2, 3));
+
+        writeBehind.flush();
+
+        assertThat(written).containsExactly(1L, 3L);
+        assertThat(queued()).isEqualTo(1);
+    }
+
+    @Test
+    void badRowIsDroppedAfterMaxAttempts() {
+        writeBehind.save(user(), rows(1, 2, 3));
+
+        writeBehind.flush();
+        writeBehind.flush();
+        assertThat(queued()).isEqualTo(1);
+        writeBehind.flush();
+
+        assertThat(queued()).isZero();
+        assertThat(meterRegistry.counter("widgera.history.write-behind.dropped").count()).isEqualTo(1);
+
+        writeBehind.save(user(), rows(4));
+        writeBehind.flush();
+        assertThat(written).containsExactly(1L, 3L, 4L);
+    }
+
+    @Test
+    void unavailableDatabaseDropsNothing() {
+        writeBehind.save(user(), rows(1, 2, 3));
+        databaseDown.set(true);
+
+        for (int i = 0; i < 10; i++) {
+            writeBehind.flush();
+        }
+
+        assertThat(queued()).isEqualTo(3);
+        assertThat(meterRegistry.counter("widgera.history.write-behind.dropped").count()).isZero();
+
+        databaseDown.set(false);
+        writeBehind.flush();
+        assertThat(written).containsExactly(1L, 3L);
+    }
+
+    private double queued() {
+        return meterRegistry.get("widgera.history.write-behind.queued").gauge().value();
+    }
+
+    private static User user() {
+        return User.builder().id(7L).build();
+    }
+
+    private static List<PromptHistory> rows(long... ids) {
+        List<PromptHistory> rows = new ArrayList<>();
+        for (long id : ids) {
+            rows.add(PromptHistory.builder().id(id).prompt("prompt " + id).build());
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,31 @@
+package com.widgera.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImagePreprocessorTest {
+
+    @Test
+    void detectsHeicAndHeifBrands() {
+        assertThat(ImagePreprocessor.detectContentType(ftyp("heic"))).isEqualTo("image/heic");
+        assertThat(ImagePreprocessor.detectContentType(ftyp("mif1"))).isEqualTo("image/heif");
+        assertThat(ImagePreprocessor.detectContentType(ftyp("isom"))).isNull();
+    }
+
+    @Test
+    void truncatedFtypBoxIsUnknown() {
+        for (int length = 8; length < 12; length++) {
+            byte[] data = new byte[length];
+            System.arraycopy("ftyp".getBytes(StandardCharsets.US_ASCII), 0, data, 4, 4);
+
+            assertThat(ImagePreprocessor.detectContentType(data)).isNull();
+        }
+    }
+
+    private static byte[] ftyp(String brand) {
+        return ("\0\0\0\u0018ftyp" + brand + "\0\0\0\0").getBytes(StandardCharsets.US_ASCII);
+    }
+}
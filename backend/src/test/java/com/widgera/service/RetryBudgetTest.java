@@ -0,0 +1,63 @@
+package com.widgera.service;
+
+import com.widgera.config.GeminiResilienceConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryBudgetTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void exhaustsWithoutRequests() {
+        RetryBudget budget = budget(0.2, 0);
+
+        assertThat(budget.tryAcquire()).isFalse();
+        assertThat(meterRegistry.counter("widgera.llm.retry.budget.exhausted").count()).isEqualTo(1);
+    }
+
+    @Test
+    void allowsExtraCallsInProportionToRequests() {
+        RetryBudget budget = budget(0.5, 0);
+        for (int i = 0; i < 4; i++) {
+            budget.recordRequest();
+        }
+
+        assertThat(budget.tryAcquire()).isTrue();
+        assertThat(budget.tryAcquire()).isTrue();
+        assertThat(budget.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void capsTheBalance() {
+        RetryBudget budget = budget(1.0, 0);
+        for (int i = 0; i < 1000; i++) {
+            budget.recordRequest();
+        }
+
+        int granted = 0;
+        while (budget.tryAcquire()) {
+            granted++;
+        }
+        assertThat(granted).isEqualTo(100);
+    }
+
+    @Test
+    void perSecondAllowanceWorksWithoutDeposits() {
+        RetryBudget budget = budget(0.2, 2);
+
+        // Crossing a second boundary only resets the allowance, so both are granted either way
+        assertThat(budget.tryAcquire()).isTrue();
+        assertThat(budget.tryAcquire()).isTrue();
+    }
+
+    private RetryBudget budget(double ratio, int minPerSecond) {
+        GeminiResilienceConfig config = new GeminiResilienceConfig();
+        ReflectionTestUtils.setField(config, "retryBudgetRatio", ratio);
+        ReflectionTestUtils.setField(config, "retryBudgetMinPerSecond", minPerSecond);
+        return new RetryBudget(config, meterRegistry);
+    }
+}
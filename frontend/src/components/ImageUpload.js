@@ -27,7 +27,7 @@ const ImageUpload = ({ onUpload, imageId, previewUrl, onUploadingChange }) => {
     setFilename(file.name);
 
     try {
-      const response = await imageApi.upload(file);
+      const response = await imageApi.uploadDirect(file);
 
       onUpload(response.data.imageId, response.data.imageUrl);
       if (response.data.duplicate) {
@@ -56,12 +56,25 @@ const Dashboard = () => {
     setLoading(true);
 
     try {
-      const response = await promptApi.submit({
-        prompt,
-        fields,
-        imageId: imageId || null,
-      });
-      setOutput(response.data.output);
+      // Fields are shown as soon as each one is extracted
+      const partial = {};
+      await promptApi.stream(
+        {
+          prompt,
+          fields,
+          imageId: imageId || null,
+        },
+        (event, data) => {
+          if (event === 'field') {
+            partial[data.name] = data.value;
+            setOutput({ ...partial });
+          } else if (event === 'complete') {
+            setOutput(data.output);
+          } else if (event === 'error') {
+            setError(data.message || 'Failed to process prompt');
+          }
+        }
+      );
     } catch (err) {
       setError(err.response?.data?.message || 'Failed to process prompt');
     } finally {
@@ -10,22 +10,67 @@ const History = () => {
   const [history, setHistory] = useState([]);
   const [loading, setLoading] = useState(true);
   const [error, setError] = useState('');
+  const [nextCursor, setNextCursor] = useState(null);
+  const [loadingMore, setLoadingMore] = useState(false);
+  const [query, setQuery] = useState('');
+  const [activeQuery, setActiveQuery] = useState('');
 
   useEffect(() => {
-    fetchHistory();
+    fetchHistory('');
   }, []);
 
-  const fetchHistory = async () => {
+  // Plain history newest first, or full-text matches best first while a search is active
+  const fetchPage = (q, cursor) =>
+    q ? promptApi.searchHistory(q, cursor) : promptApi.getHistory(cursor);
+
+  const fetchHistory = async (q) => {
+    setLoading(true);
+    setError('');
     try {
-      const response = await promptApi.getHistory();
-      setHistory(response.data);
+      const response = await fetchPage(q);
+      setHistory(response.data.items);
+      setNextCursor(response.data.nextCursor);
+      setActiveQuery(q);
     } catch (err) {
-      setError('Failed to load history');
+      setError(q ? 'Search failed' : 'Failed to load history');
     } finally {
       setLoading(false);
     }
   };
 
+  const loadMore = async () => {
+    setLoadingMore(true);
+    try {
+      const response = await fetchPage(activeQuery, nextCursor);
+      setHistory((prev) => [...prev, ...response.data.items]);
+      setNextCursor(response.data.nextCursor);
+    } catch (err) {
+      setError('Failed to load more history');
+    } finally {
+      setLoadingMore(false);
+    }
+  };
+
+  const handleSearch = (e) => {
+    e.preventDefault();
+    fetchHistory(query.trim());
+  };
+
+  const clearSearch = () => {
+    setQuery('');
+    fetchHistory('');
+  };
+
+  // The server wraps matched terms in <mark>; render them as elements, never as raw HTML
+  const renderHighlight = (highlight) =>
+    highlight.split(/(<mark>.*?<\/mark>)/g).map((part, index) =>
+      part.startsWith('<mark>') ? (
+        <mark key={index}>{part.slice(6, -7)}</mark>
+      ) : (
+        <span key={index}>{part}</span>
+      )
+    );
+
   const handleLogout = () => {
     logout();
     navigate('/login');
@@ -50,6 +95,32 @@ const History = () => {
         </div>
       </div>
 
+      <form className="card" onSubmit={handleSearch}>
+        <div style={{ display: 'flex', gap: '8px' }}>
+          <input
+            type="text"
+            className="input"
+            placeholder='Search prompts and outputs, e.g. invoice "late fee"'
+            value={query}
+            onChange={(e) => setQuery(e.target.value)}
+            maxLength={200}
+            style={{ flex: 1, marginBottom: 0 }}
+          />
+          <button type="submit" className="btn btn-primary">
+            Search
+          </button>
+          {activeQuery && (
+            <button
+              type="button"
+              className="btn btn-secondary"
+              onClick={clearSearch}
+            >
+              Clear
+            </button>
+          )}
+        </div>
+      </form>
+
       {error && <div className="error">{error}</div>}
 
       {loading ? (
@@ -59,6 +130,12 @@ const History = () => {
             <p>Loading history...</p>
           </div>
         </div>
+      ) : history.length === 0 && activeQuery ? (
+        <div className="card">
+          <p style={{ textAlign: 'center', color: '#666' }}>
+            No history matches "{activeQuery}".
+          </p>
+        </div>
       ) : history.length === 0 ? (
         <div className="card">
           <p style={{ textAlign: 'center', color: '#666' }}>
@@ -85,6 +162,12 @@ const History = () => {
               <small style={{ color: '#666' }}>ID: {item.id}</small>
             </div>
 
+            {item.highlight && (
+              <p style={{ marginBottom: '16px', color: '#444' }}>
+                {renderHighlight(item.highlight)}
+              </p>
+            )}
+
             <div style={{ marginBottom: '16px' }}>
               <strong>Prompt:</strong>
               <p
@@ -174,6 +257,18 @@ const History = () => {
           </div>
         ))
       )}
+
+      {!loading && nextCursor && (
+        <div style={{ textAlign: 'center', marginBottom: '24px' }}>
+          <button
+            className="btn btn-secondary"
+            onClick={loadMore}
+            disabled={loadingMore}
+          >
+            {loadingMore ? 'Loading...' : 'Load more'}
+          </button>
+        </div>
+      )}
     </div>
   );
 };
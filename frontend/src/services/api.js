@@ -38,6 +38,11 @@ export const authApi = {
   login: (data) => api.post('/auth/login', data),
 };
 
+const sha256Hex = async (file) => {
+  const digest = await crypto.subtle.digest('SHA-256', await file.arrayBuffer());
+  return Array.from(new Uint8Array(digest), (b) => b.toString(16).padStart(2, '0')).join('');
+};
+
 // Image endpoints
 export const imageApi = {
   upload: (file) => {
@@ -47,12 +52,106 @@ export const imageApi = {
       headers: { 'Content-Type': 'multipart/form-data' },
     });
   },
+  // Upload straight to storage: intent -> PUT to the presigned URL -> complete.
+  // Falls back to the multipart endpoint where Web Crypto is unavailable (non-HTTPS origins).
+  uploadDirect: async (file) => {
+    if (!window.crypto?.subtle) {
+      return imageApi.upload(file);
+    }
+    const intent = await api.post('/images/upload-intent', {
+      filename: file.name,
+      contentType: file.type,
+      size: file.size,
+      sha256: await sha256Hex(file),
+    });
+    if (intent.data.duplicate) {
+      return {
+        data: {
+          imageId: intent.data.imageId,
+          imageUrl: intent.data.imageUrl,
+          filename: file.name,
+          duplicate: true,
+        },
+      };
+    }
+
+    const put = await fetch(intent.data.uploadUrl, {
+      method: intent.data.method,
+      headers: intent.data.headers,
+      body: file,
+    });
+    if (!put.ok) {
+      const error = new Error('Failed to upload image');
+      error.response = { status: put.status, data: { message: 'Failed to upload image' } };
+      throw error;
+    }
+    return api.post(`/images/${intent.data.uploadId}/complete`);
+  },
+};
+
+// Parse a text/event-stream body, calling onEvent(name, data) per event
+const readEventStream = async (response, onEvent) => {
+  const reader = response.body.getReader();
+  const decoder = new TextDecoder();
+  let buffer = '';
+
+  for (;;) {
+    const { done, value } = await reader.read();
+    if (done) break;
+    buffer += decoder.decode(value, { stream: true });
+
+    let boundary;
+    while ((boundary = buffer.indexOf('\n\n')) !== -1) {
+      const frame = buffer.slice(0, boundary);
+      buffer = buffer.slice(boundary + 2);
+
+      let event = 'message';
+      const dataLines = [];
+      frame.split('\n').forEach((line) => {
+        if (line.startsWith('event:')) event = line.slice(6).trim();
+        else if (line.startsWith('data:')) dataLines.push(line.slice(5));
+      });
+      if (dataLines.length > 0) {
+        onEvent(event, JSON.parse(dataLines.join('\n')));
+      }
+    }
+  }
 };
 
 // Prompt endpoints
 export const promptApi = {
   submit: (data) => api.post('/prompt', data),
-  getHistory: () => api.get('/prompt/history'),
+  // SSE over POST (EventSource only supports GET), so this uses fetch directly
+  stream: async (data, onEvent) => {
+    const response = await fetch(`${API_URL}/prompt/stream`, {
+      method: 'POST',
+      headers: {
+        'Content-Type': 'application/json',
+        Accept: 'text/event-stream',
+        Authorization: `Bearer ${localStorage.getItem('token')}`,
+      },
+      body: JSON.stringify(data),
+    });
+
+    if (response.status === 401) {
+      localStorage.removeItem('token');
+      localStorage.removeItem('username');
+      window.location.href = '/login';
+      return;
+    }
+    if (!response.ok) {
+      const body = await response.json().catch(() => ({}));
+      const error = new Error(body.message || 'Failed to process prompt');
+      error.response = { status: response.status, data: body };
+      throw error;
+    }
+
+    await readEventStream(response, onEvent);
+  },
+  getHistory: (cursor) =>
+    api.get('/prompt/history', { params: cursor ? { cursor } : {} }),
+  searchHistory: (q, cursor) =>
+    api.get('/prompt/history/search', { params: cursor ? { q, cursor } : { q } }),
 };
 
 export default api;